@@ -0,0 +1,291 @@
+package appserver.client;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
+import static appserver.comm.MessageTypes.JOB_BATCH;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import appserver.comm.WireProtocol;
+import appserver.job.Job;
+import appserver.job.JobFailedException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import utils.PropertyHandler;
+
+/**
+ * Class [JobClient] Submits jobs to the application server without waiting for them.
+ * <p>
+ * All jobs go over one connection in the binary wire format, which any number of threads share.
+ * Every request is tagged with a correlation id, so the server can answer in any order; a reader
+ * thread completes the future of the request a response belongs to. The connection is opened on
+ * first use, and opened again for the next job if it breaks - jobs in flight at that time fail.
+ * Results of streaming tools can be taken chunk by chunk, see <code>stream()</code>.
+ */
+public class JobClient implements Closeable {
+
+    private final String host;
+    private final int port;
+
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private Connection connection = null;
+    private volatile int streamWindow = 4;
+
+    public JobClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Creates a client for the server named by HOST and PORT in the server properties file
+     */
+    public JobClient(String serverPropertiesFile) throws IOException {
+        Properties properties = new PropertyHandler(serverPropertiesFile);
+        this.host = properties.getProperty("HOST").trim();
+        this.port = Integer.parseInt(properties.getProperty("PORT").trim());
+    }
+
+    /**
+     * Submits a job, the future completes with its result, or with a JobFailedException.
+     * Cancelling the future cancels the job, on the satellite too. A job with a deadline
+     * fails once the deadline passed, whether it is waiting or running
+     */
+    public CompletableFuture<Object> submit(Job job) {
+        return send(new Message(JOB_REQUEST, job));
+    }
+
+    /**
+     * Submits a number of jobs in one message. The futures are in the order of the jobs,
+     * they complete when the whole batch is done.
+     */
+    public List<CompletableFuture<Object>> submitAll(Collection<Job> jobs) {
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            results.add(new CompletableFuture<Object>());
+        }
+
+        send(new Message(JOB_BATCH, new ArrayList<Job>(jobs))).whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object batchResult, Throwable error) {
+                if (error != null) {
+                    for (CompletableFuture<Object> result : results) {
+                        result.completeExceptionally(error);
+                    }
+                    return;
+                }
+
+                List<?> batchResults = (List<?>) batchResult;
+                for (int i = 0; i < results.size(); i++) {
+                    Object result = i < batchResults.size() ? batchResults.get(i) : new JobFailedException("No result in batch");
+                    if (result instanceof JobFailedException) {
+                        results.get(i).completeExceptionally((JobFailedException) result);
+                    } else {
+                        results.get(i).complete(result);
+                    }
+                }
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Submits a job whose results are streamed: they can be taken from the returned stream as soon as
+     * the first chunk arrives. Tools that do not stream deliver their result as the only element.
+     */
+    public ResultStream stream(Job job) throws IOException {
+        final Message message = new Message(STREAM_REQUEST, job);
+        message.setCorrelationId(nextCorrelationId.incrementAndGet());
+
+        Connection streamConnection = getConnection();
+        final ResultStream stream = new ResultStream(streamConnection, message.getCorrelationId());
+        streamConnection.streams.put(message.getCorrelationId(), stream);
+        streamConnection.send(message).whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object count, Throwable error) {
+                stream.finished(error);
+            }
+        });
+
+        // the chunks the satellite may send before we took any
+        streamConnection.grant(message.getCorrelationId(), streamWindow);
+        return stream;
+    }
+
+    /**
+     * Number of chunks of a streamed result that may be on their way before the first one is taken
+     */
+    public void setStreamWindow(int chunks) {
+        this.streamWindow = Math.max(1, chunks);
+    }
+
+    private CompletableFuture<Object> send(Message message) {
+        message.setCorrelationId(nextCorrelationId.incrementAndGet());
+        try {
+            return getConnection().send(message);
+        } catch (IOException error) {
+            CompletableFuture<Object> failed = new CompletableFuture<Object>();
+            failed.completeExceptionally(error);
+            return failed;
+        }
+    }
+
+    // the shared connection, opened if there is none
+    private synchronized Connection getConnection() throws IOException {
+        if (connection == null || !connection.open) {
+            connection = new Connection();
+        }
+        return connection;
+    }
+
+    /**
+     * Class [Connection] One connection to the server, and the requests waiting for an answer on it
+     */
+    class Connection {
+
+        private final MessageChannel channel;
+        // requests sent, but not answered yet
+        private final Map<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+        // streaming requests among them, and where their chunks go
+        private final Map<Long, ResultStream> streams = new ConcurrentHashMap<Long, ResultStream>();
+        private volatile boolean open = true;
+
+        Connection() throws IOException {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            try {
+                channel = WireProtocol.connect(socket, WireProtocol.BINARY);
+            } catch (IOException error) {
+                socket.close();
+                throw error;
+            }
+
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readResponses();
+                }
+            }, "JobClient-" + host + ":" + port);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<Object> send(Message message) {
+            final long correlationId = message.getCorrelationId();
+            CompletableFuture<Object> result = new CompletableFuture<Object>();
+            pending.put(correlationId, result);
+
+            // whoever cancels the future does not want the result any more, neither need the server nor the satellite
+            result.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object value, Throwable error) {
+                    if (error instanceof CancellationException && pending.remove(correlationId) != null) {
+                        Message cancel = new Message(CANCEL_JOB, null);
+                        cancel.setCorrelationId(correlationId);
+                        try {
+                            channel.writeMessage(cancel);
+                        } catch (IOException writeError) {
+                            close(writeError);
+                        }
+                    }
+                }
+            });
+
+            try {
+                channel.writeMessage(message);
+            } catch (IOException error) {
+                pending.remove(message.getCorrelationId());
+                result.completeExceptionally(error);
+                close(error);
+            }
+            return result;
+        }
+
+        // let the satellite send that many more chunks of a stream, a negative number cancels it
+        void grant(long correlationId, int chunks) {
+            Message credit = new Message(STREAM_CREDIT, chunks);
+            credit.setCorrelationId(correlationId);
+            try {
+                channel.writeMessage(credit);
+            } catch (IOException error) {
+                close(error);
+            }
+        }
+
+        // reader loop, runs until the connection breaks
+        private void readResponses() {
+            try {
+                while (open) {
+                    Message response = channel.readMessage();
+
+                    if (response.getType() == RESULT_CHUNK) {
+                        ResultStream stream = streams.get(response.getCorrelationId());
+                        if (stream != null) {
+                            stream.chunkArrived(response.getContent());
+                        }
+                        continue;
+                    }
+                    streams.remove(response.getCorrelationId());
+
+                    CompletableFuture<Object> result = pending.remove(response.getCorrelationId());
+                    if (result == null) {
+                        System.err.println("[JobClient] Response for unknown request " + response.getCorrelationId());
+                        continue;
+                    }
+
+                    if (response.getType() == JOB_RESULT) {
+                        result.complete(response.getContent());
+                    } else if (response.getType() == JOB_FAILED) {
+                        result.completeExceptionally(new JobFailedException((String) response.getContent()));
+                    } else {
+                        result.completeExceptionally(new IOException("Unexpected message type " + response.getType()));
+                    }
+                }
+            } catch (Exception error) {
+                close(error);
+            }
+        }
+
+        // fail whatever is still pending, nobody is going to answer it
+        void close(Exception reason) {
+            open = false;
+            channel.close();
+
+            Iterator<CompletableFuture<Object>> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().completeExceptionally(reason);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of requests (jobs or batches) waiting for their response
+     */
+    public synchronized int getPendingCount() {
+        return connection == null ? 0 : connection.pending.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            connection.close(new IOException("Job client closed"));
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package appserver.client;
+
+import appserver.job.JobFailedException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Class [ResultStream] The results of a streaming job, handed out chunk by chunk as they arrive.
+ * Every chunk taken lets the satellite send one more, so no more than the stream window of chunks
+ * is ever buffered here, however long the stream. Closing a stream before its end cancels the job.
+ */
+public class ResultStream implements Closeable {
+
+    // marks the end of the stream in the queue of chunks
+    private static final Object END = new Object();
+
+    private final JobClient.Connection connection;
+    private final long correlationId;
+    private final BlockingQueue<Object> chunks = new LinkedBlockingQueue<Object>();
+
+    private volatile Throwable failure = null;
+    private volatile boolean done = false;
+
+    ResultStream(JobClient.Connection connection, long correlationId) {
+        this.connection = connection;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Returns the next chunk of results, waiting for it if necessary, or null at the end of the stream
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> nextChunk() throws JobFailedException, IOException, InterruptedException {
+        if (done) {
+            return endOfStream();
+        }
+
+        Object chunk = chunks.take();
+        if (chunk == END) {
+            done = true;
+            return endOfStream();
+        }
+
+        // room for one more
+        connection.grant(correlationId, 1);
+        return (List<Object>) chunk;
+    }
+
+    private List<Object> endOfStream() throws JobFailedException, IOException {
+        if (failure instanceof JobFailedException) {
+            throw (JobFailedException) failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+        return null;
+    }
+
+    void chunkArrived(Object chunk) {
+        chunks.add(chunk);
+    }
+
+    void finished(Throwable error) {
+        failure = error;
+        chunks.add(END);
+    }
+
+    @Override
+    public void close() {
+        if (!done) {
+            done = true;
+            connection.grant(correlationId, -1);
+        }
+    }
+}
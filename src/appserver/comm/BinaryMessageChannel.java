@@ -0,0 +1,135 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Class [BinaryMessageChannel] Sends messages in a compact, length-prefixed binary format:
+ * <pre>
+ * frame   := length:int type:int flags:byte correlationId:long hasJob:byte [jobId:long deadline:long priority:byte tenant:string toolName:string] payload
+ * </pre>
+ * If the message carries a job, its id, deadline, priority, tenant and tool name are part of the frame and the payload are the job's
+ * parameters, otherwise the payload is the message content. Payloads are encoded by a PayloadCodec.
+ * Frame buffers are kept and reused, so steady traffic does not allocate them per message.
+ */
+public class BinaryMessageChannel implements MessageChannel {
+
+    private final Socket socket;
+    private final DataInputStream readFromNet;
+    private final DataOutputStream writeToNet;
+    private final PayloadCodec codec;
+
+    // reused buffers for the frame being written and the frame being read
+    private final FrameOutput outFrame = new FrameOutput();
+    private final DataOutputStream outFrameData = new DataOutputStream(outFrame);
+    private final FrameInput inFrame = new FrameInput();
+    private final DataInputStream inFrameData = new DataInputStream(inFrame);
+
+    public BinaryMessageChannel(Socket socket, InputStream in, OutputStream out, PayloadCodec codec) {
+        this.socket = socket;
+        this.readFromNet = new DataInputStream(in);
+        this.writeToNet = new DataOutputStream(out);
+        this.codec = codec;
+    }
+
+    @Override
+    public Message readMessage() throws IOException, ClassNotFoundException {
+        synchronized (inFrame) {
+            int length = readFromNet.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt frame length " + length);
+            }
+            inFrame.fill(readFromNet, length);
+
+            Message message = new Message();
+            message.setType(inFrameData.readInt());
+            message.setFlags(inFrameData.readUnsignedByte());
+            message.setCorrelationId(inFrameData.readLong());
+
+            if (inFrameData.readByte() != 0) {
+                long jobId = inFrameData.readLong();
+                long deadline = inFrameData.readLong();
+                int priority = inFrameData.readUnsignedByte();
+                String tenant = DefaultPayloadCodec.readString(inFrameData);
+                String toolName = DefaultPayloadCodec.readString(inFrameData);
+                Job job = new Job(jobId, toolName, codec.decode(inFrameData), deadline);
+                job.setPriority(priority);
+                job.setTenant(tenant);
+                message.setContent(job);
+            } else {
+                message.setContent(codec.decode(inFrameData));
+            }
+            return message;
+        }
+    }
+
+    @Override
+    public void writeMessage(Message message) throws IOException {
+        synchronized (outFrame) {
+            outFrame.reset();
+            outFrameData.writeInt(message.getType());
+            outFrameData.writeByte(message.getFlags());
+            outFrameData.writeLong(message.getCorrelationId());
+
+            Object content = message.getContent();
+            if (content instanceof Job) {
+                Job job = (Job) content;
+                outFrameData.writeByte(1);
+                outFrameData.writeLong(job.getId());
+                outFrameData.writeLong(job.getDeadline());
+                outFrameData.writeByte(job.getPriority());
+                DefaultPayloadCodec.writeString(job.getTenant(), outFrameData);
+                DefaultPayloadCodec.writeString(job.getToolName(), outFrameData);
+                codec.encode(job.getParameters(), outFrameData);
+            } else {
+                outFrameData.writeByte(0);
+                codec.encode(content, outFrameData);
+            }
+
+            writeToNet.writeInt(outFrame.size());
+            outFrame.writeTo(writeToNet);
+            writeToNet.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException error) {
+        }
+    }
+
+    // frame buffer that is refilled from the network for every frame read
+    private static class FrameInput extends ByteArrayInputStream {
+
+        FrameInput() {
+            super(new byte[512]);
+        }
+
+        void fill(DataInputStream in, int length) throws IOException {
+            if (buf.length < length) {
+                buf = new byte[Math.max(length, buf.length * 2)];
+            }
+            in.readFully(buf, 0, length);
+            pos = 0;
+            count = length;
+            mark = 0;
+        }
+    }
+
+    // frame buffer that keeps its (grown) array across frames
+    private static class FrameOutput extends ByteArrayOutputStream {
+
+        FrameOutput() {
+            super(512);
+        }
+    }
+}
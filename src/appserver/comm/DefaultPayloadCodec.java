@@ -0,0 +1,156 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import appserver.job.JobFailedException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class [DefaultPayloadCodec] Payload codec with fast paths for the common parameter and result
+ * types. Each value is written as a one byte tag followed by its data; anything without a fast
+ * path falls back to Java serialization of just that value.
+ */
+public class DefaultPayloadCodec implements PayloadCodec {
+
+    static final byte NULL = 0;
+    static final byte INTEGER = 1;
+    static final byte LONG = 2;
+    static final byte STRING = 3;
+    static final byte BYTES = 4;
+    static final byte DOUBLE = 5;
+    static final byte BOOLEAN = 6;
+    static final byte LIST = 7;
+    static final byte JOB = 8;
+    static final byte FAILURE = 9;
+    static final byte SERIALIZED = 127;
+
+    @Override
+    public void encode(Object payload, DataOutputStream out) throws IOException {
+        if (payload == null) {
+            out.writeByte(NULL);
+        } else if (payload instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) payload);
+        } else if (payload instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) payload);
+        } else if (payload instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) payload, out);
+        } else if (payload instanceof byte[]) {
+            byte[] bytes = (byte[]) payload;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (payload instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) payload);
+        } else if (payload instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) payload);
+        } else if (payload.getClass() == ArrayList.class) {
+            // batches of jobs and their results; other lists keep their class through serialization
+            List<?> list = (List<?>) payload;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                encode(element, out);
+            }
+        } else if (payload instanceof Job) {
+            Job job = (Job) payload;
+            out.writeByte(JOB);
+            out.writeLong(job.getId());
+            out.writeLong(job.getDeadline());
+            out.writeByte(job.getPriority());
+            writeString(job.getTenant(), out);
+            writeString(job.getToolName(), out);
+            encode(job.getParameters(), out);
+        } else if (payload.getClass() == JobFailedException.class) {
+            out.writeByte(FAILURE);
+            writeString(String.valueOf(((JobFailedException) payload).getMessage()), out);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(payload);
+            objectOut.close();
+
+            out.writeByte(SERIALIZED);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    @Override
+    public Object decode(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case STRING:
+                return readString(in);
+            case BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case LIST:
+                int size = in.readInt();
+                ArrayList<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(in));
+                }
+                return list;
+            case JOB:
+                long id = in.readLong();
+                long deadline = in.readLong();
+                int priority = in.readUnsignedByte();
+                String tenant = readString(in);
+                String toolName = readString(in);
+                Job job = new Job(id, toolName, decode(in), deadline);
+                job.setPriority(priority);
+                job.setTenant(tenant);
+                return job;
+            case FAILURE:
+                return new JobFailedException(readString(in));
+            case SERIALIZED:
+                byte[] serialized = new byte[in.readInt()];
+                in.readFully(serialized);
+                ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(serialized));
+                try {
+                    return objectIn.readObject();
+                } finally {
+                    objectIn.close();
+                }
+            default:
+                throw new IOException("Unknown payload tag " + tag);
+        }
+    }
+
+    // strings as length and UTF-8 bytes, writeUTF() is limited to 64K
+    static void writeString(String string, DataOutputStream out) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
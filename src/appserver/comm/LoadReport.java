@@ -0,0 +1,58 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [LoadReport] Load of a satellite as reported to the server: how many jobs wait in its
+ * queue, how many the queue can take, how many are executing right now, and how busy its CPU is
+ */
+public class LoadReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    int queueDepth;
+    int queueCapacity;
+    int activeJobs;
+    int workers;
+    // CPU load of the satellite between 0 and 1, negative if unknown
+    double cpuLoad;
+
+    public LoadReport(int queueDepth, int queueCapacity, int activeJobs, int workers, double cpuLoad) {
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.activeJobs = activeJobs;
+        this.workers = workers;
+        this.cpuLoad = cpuLoad;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getActiveJobs() {
+        return activeJobs;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    // no room left in the queue, further jobs would be rejected
+    public boolean isSaturated() {
+        return queueDepth >= queueCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return "queue " + queueDepth + "/" + queueCapacity + ", active " + activeJobs + "/" + workers
+                + (cpuLoad < 0 ? "" : String.format(", cpu %.2f", cpuLoad));
+    }
+}
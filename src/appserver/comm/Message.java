@@ -15,6 +15,13 @@ public class Message implements MessageTypes, Serializable {
     int type;
     // contains the content that is specific to a certain message type
     Object content;
+    // tags requests and their responses on connections that carry more than one request at a time
+    long correlationId;
+    // properties of the content, e.g. DETERMINISTIC_RESULT
+    int flags;
+
+    // flag of results that depend on nothing but the job, so they may be reused for the same job
+    public static final int DETERMINISTIC_RESULT = 1;
 
     public Message(int type, Object content) {
         this.type = type;
@@ -41,4 +48,26 @@ public class Message implements MessageTypes, Serializable {
     public Object getContent() {
         return content;
     }
+
+    // getter and setter methods for correlation id
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    // getter and setter methods for flags
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
 }
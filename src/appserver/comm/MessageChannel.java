@@ -0,0 +1,16 @@
+package appserver.comm;
+
+import java.io.IOException;
+
+/**
+ * Interface [MessageChannel] A connection that Message objects are sent and received over.
+ * How the messages look on the wire depends on the implementation, see WireProtocol.
+ */
+public interface MessageChannel {
+
+    public Message readMessage() throws IOException, ClassNotFoundException;
+
+    public void writeMessage(Message message) throws IOException;
+
+    public void close();
+}
@@ -12,6 +12,24 @@ public interface MessageTypes {
     public static int JOB_REQUEST = 1;
  // public static int LIST_TOOLS = 2;
     public static int REGISTER_SATELLITE = 3;
- // public static int UNREGISTER_SATELLITE = 4;
+    public static int UNREGISTER_SATELLITE = 4;
  // public static int REGISTER_TOOL = 5;   
+    public static int JOB_RESULT = 6;
+    public static int JOB_FAILED = 7;
+    public static int JOB_REJECTED = 8;
+    public static int LOAD_REPORT = 9;
+    public static int JOB_BATCH = 10;
+    // streamed results: the request, a chunk of results, and credit for more chunks (negative: cancel)
+    public static int STREAM_REQUEST = 11;
+    public static int RESULT_CHUNK = 12;
+    public static int STREAM_CREDIT = 13;
+    // sent by a satellite periodically over its registration connection, with its load
+    public static int HEARTBEAT = 14;
+    // a job request is no longer wanted (same correlation id); no response follows
+    public static int CANCEL_JOB = 15;
+    // work stealing: an idle satellite asks the server for jobs (with its load), the server asks a busy
+    // satellite to give up queued jobs for it, and the busy satellite answers those with where they go instead
+    public static int WORK_REQUEST = 16;
+    public static int STEAL_JOBS = 17;
+    public static int JOB_STOLEN = 18;
 }
@@ -0,0 +1,58 @@
+package appserver.comm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Class [ObjectMessageChannel] Sends messages as serialized Java objects over object streams,
+ * the way all entities of the application server communicated originally
+ */
+public class ObjectMessageChannel implements MessageChannel {
+
+    private final Socket socket;
+    private final ObjectOutputStream writeToNet;
+    private final ObjectInputStream readFromNet;
+
+    public ObjectMessageChannel(Socket socket, InputStream in, OutputStream out) throws IOException {
+        this.socket = socket;
+
+        // output stream first, so the other side is not left waiting for our stream header
+        writeToNet = new ObjectOutputStream(out);
+        writeToNet.flush();
+        readFromNet = new ObjectInputStream(in);
+    }
+
+    @Override
+    public Message readMessage() throws IOException, ClassNotFoundException {
+        return (Message) readFromNet.readObject();
+    }
+
+    @Override
+    public void writeMessage(Message message) throws IOException {
+        writeObject(message);
+    }
+
+    /**
+     * Writes any object, for peers that expect results that are not wrapped in a message
+     */
+    public void writeObject(Object object) throws IOException {
+        synchronized (writeToNet) {
+            writeToNet.writeObject(object);
+            // connections may live long, don't let the stream hold on to everything ever written
+            writeToNet.reset();
+            writeToNet.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException error) {
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package appserver.comm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Interface [PayloadCodec] Encodes the payload of a binary message, i.e. the parameters of a job,
+ * a result or any other message content. Both ends of a connection need to use the same codec.
+ */
+public interface PayloadCodec {
+
+    public void encode(Object payload, DataOutputStream out) throws IOException;
+
+    public Object decode(DataInputStream in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,33 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [StealRequest] Sent by the server to a busy satellite: give up to that many of the jobs
+ * waiting in your queue to the idle satellite named here
+ */
+public class StealRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    String thief;
+    int jobs;
+
+    public StealRequest(String thief, int jobs) {
+        this.thief = thief;
+        this.jobs = jobs;
+    }
+
+    public String getThief() {
+        return thief;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    @Override
+    public String toString() {
+        return jobs + " jobs for " + thief;
+    }
+}
@@ -0,0 +1,104 @@
+package appserver.comm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Class [WireProtocol] Sets up message channels on sockets, negotiating the wire format.
+ * <p>
+ * A peer that wants to talk binary starts the connection with the bytes 'A' 'S' 'B' and the
+ * protocol version, and the accepting side answers with the same four bytes. Object streams
+ * always start with the serialization magic 0xACED, so the accepting side can tell the two apart
+ * and clients that only know object streams keep working unchanged.
+ */
+public class WireProtocol {
+
+    public static final String OBJECT = "object";
+    public static final String BINARY = "binary";
+
+    static final int VERSION = 5;
+    static final byte[] PREAMBLE = {'A', 'S', 'B', VERSION};
+
+    // what connections opened by this process use, and how they encode payloads
+    static String protocol = OBJECT;
+    static PayloadCodec codec = new DefaultPayloadCodec();
+
+    /**
+     * Reads WIRE_PROTOCOL ("object" or "binary") and PAYLOAD_CODEC (class name of a PayloadCodec)
+     */
+    public static void configure(Properties properties) throws ReflectiveOperationException {
+        String protocolProperty = properties.getProperty("WIRE_PROTOCOL");
+        if (protocolProperty != null) {
+            protocol = protocolProperty.trim();
+            if (!protocol.equals(OBJECT) && !protocol.equals(BINARY)) {
+                throw new IllegalArgumentException("Unknown wire protocol: " + protocol);
+            }
+        }
+
+        String codecProperty = properties.getProperty("PAYLOAD_CODEC");
+        if (codecProperty != null) {
+            codec = (PayloadCodec) Class.forName(codecProperty.trim()).getDeclaredConstructor().newInstance();
+        }
+    }
+
+    public static String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Opens a channel on a socket we connected, in the configured wire format
+     */
+    public static MessageChannel connect(Socket socket) throws IOException {
+        return connect(socket, protocol);
+    }
+
+    public static MessageChannel connect(Socket socket, String wireFormat) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        if (!wireFormat.equals(BINARY)) {
+            return new ObjectMessageChannel(socket, in, out);
+        }
+
+        out.write(PREAMBLE);
+        out.flush();
+
+        byte[] answer = new byte[PREAMBLE.length];
+        new DataInputStream(in).readFully(answer);
+        if (answer[0] != 'A' || answer[1] != 'S' || answer[2] != 'B' || answer[3] != VERSION) {
+            throw new IOException("Peer does not speak binary protocol version " + VERSION);
+        }
+        return new BinaryMessageChannel(socket, in, out, codec);
+    }
+
+    /**
+     * Opens a channel on a socket we accepted, in whatever wire format the peer starts with
+     */
+    public static MessageChannel accept(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        in.mark(PREAMBLE.length);
+        int first = in.read();
+        in.reset();
+
+        if (first != 'A') {
+            return new ObjectMessageChannel(socket, in, out);
+        }
+
+        byte[] preamble = new byte[PREAMBLE.length];
+        new DataInputStream(in).readFully(preamble);
+        if (preamble[1] != 'S' || preamble[2] != 'B' || preamble[3] != VERSION) {
+            throw new IOException("Unsupported protocol preamble");
+        }
+        out.write(PREAMBLE);
+        out.flush();
+        return new BinaryMessageChannel(socket, in, out, codec);
+    }
+}
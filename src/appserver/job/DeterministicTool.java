@@ -0,0 +1,10 @@
+package appserver.job;
+
+/**
+ * Interface [DeterministicTool]
+ * Marks tools whose result depends on nothing but the job's parameters: no state, no clock,
+ * no randomness, no side effects. The server may then answer a repeated job with the result
+ * it got before, instead of having a satellite compute it again.
+ */
+public interface DeterministicTool extends Tool {
+}
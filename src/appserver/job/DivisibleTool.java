@@ -0,0 +1,24 @@
+package appserver.job;
+
+import java.util.List;
+
+/**
+ * Interface [DivisibleTool]
+ * A tool whose jobs can be split into independent parts, e.g. a parameter sweep into ranges of the sweep.
+ * The server splits a job of such a tool into about as many parts as there are satellites, runs every
+ * part as a job of the same tool with the part's parameters, and merges the results of the parts into
+ * the result of the job. go() gets the parameters of a whole job, too, when it is run in one piece.
+ */
+public interface DivisibleTool extends Tool {
+
+    /**
+     * The parameters of the parts a job splits into, about as many as asked for; a single one if it
+     * is not worth splitting
+     */
+    public List<Object> split(Object parameters, int parts);
+
+    /**
+     * The result of the job from the results of its parts, in the order of split()
+     */
+    public Object merge(Object parameters, List<Object> results);
+}
@@ -1,8 +1,14 @@
 package appserver.job;
+import appserver.client.JobClient;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import utils.PropertyHandler;
 import appserver.comm.Message;
 import appserver.comm.MessageTypes;
@@ -51,7 +57,7 @@ public class FibClient extends Thread implements MessageTypes{
 
             // result from application server
             ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
-            Integer result = (Integer) readFromNet.readObject();
+            Object result = readFromNet.readObject();
             System.out.println("RESULT: " + result);
 
         } catch (Exception error) {
@@ -60,12 +66,24 @@ public class FibClient extends Thread implements MessageTypes{
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
+        // one connection and one batch message for all numbers, rather than a thread and a connection each
+        JobClient client = new JobClient(args.length == 1 ? args[0] : "../../config/Server.properties");
+        List<Job> jobs = new ArrayList<Job>();
         for (int i=48;i>0;i--){
-            (new FibClient("../../config/Server.properties",i)).start();
+            jobs.add(new Job("appserver.job.impl.Fib", i));
         }
 
+        List<CompletableFuture<Object>> results = client.submitAll(jobs);
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                System.out.println("RESULT: Fib(" + jobs.get(i).getParameters() + ") = " + results.get(i).get());
+            } catch (ExecutionException error) {
+                System.err.println("FibClient error : " + error.getCause());
+            }
+        }
+        client.close();
     }
 
 }
@@ -1,22 +1,45 @@
 package appserver.job;
 
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class [Job] Wrapper class to encapsulate Job-related information,
  * i.e. the (fully qualified) name of the job's tool class
  * and the parameters the tool instance will take in its message go().
+ * A job also has an id, random so that jobs of different clients do not share one, and optionally
+ * a deadline: the wall-clock time after which nobody wants its result any more.
+ * Its priority and tenant decide when it gets its turn: higher priorities always go first,
+ * and tenants of the same priority share the satellites by their weights.
  * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class Job implements Serializable{
+
+    // priorities, highest first
+    public static final int HIGH_PRIORITY = 0;
+    public static final int NORMAL_PRIORITY = 1;
+    public static final int LOW_PRIORITY = 2;
+
+    public static final String DEFAULT_TENANT = "default";
     
     String toolName;
     Object parameters;
+    long id;
+    // milliseconds since the epoch, 0 for none
+    long deadline = 0;
+    int priority = NORMAL_PRIORITY;
+    String tenant = DEFAULT_TENANT;
     
     public Job(String toolName, Object parameters) {
+        this(ThreadLocalRandom.current().nextLong(), toolName, parameters, 0);
+    }
+
+    public Job(long id, String toolName, Object parameters, long deadline) {
+        this.id = id;
         this.toolName = toolName;
         this.parameters = parameters;
+        this.deadline = deadline;
     }
     
     public String getToolName() {
@@ -26,4 +49,60 @@ public class Job implements Serializable{
     public Object getParameters() {
         return parameters;
     }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the deadline, in milliseconds since the epoch (as System.currentTimeMillis())
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the deadline that many milliseconds from now
+     */
+    public void setTimeout(long milliseconds) {
+        this.deadline = System.currentTimeMillis() + milliseconds;
+    }
+
+    public boolean isExpired() {
+        return deadline != 0 && System.currentTimeMillis() > deadline;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority, one of HIGH_PRIORITY, NORMAL_PRIORITY and LOW_PRIORITY
+     */
+    public void setPriority(int priority) {
+        if (priority < HIGH_PRIORITY || priority > LOW_PRIORITY) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+        this.priority = priority;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Sets the tenant (client, application, ...) the job is run for
+     */
+    public void setTenant(String tenant) {
+        this.tenant = tenant == null ? DEFAULT_TENANT : tenant;
+    }
+
+    // milliseconds left until the deadline, Long.MAX_VALUE if there is none
+    public long getTimeLeft() {
+        return deadline == 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,12 @@
+package appserver.job;
+
+/**
+ * Class [JobFailedException] Exception that is raised when a satellite could not execute a job,
+ * e.g. because the tool could not be loaded or threw an exception itself
+ */
+public class JobFailedException extends Exception {
+
+    public JobFailedException(String reason) {
+        super(reason);
+    }
+}
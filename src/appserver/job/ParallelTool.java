@@ -0,0 +1,27 @@
+package appserver.job;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Interface [ParallelTool]
+ * A tool that splits the work of a job into parts itself, e.g. recursively with fork-join tasks.
+ * Satellites call go() with the fork-join pool they keep for all such jobs, so one job can use every
+ * core of an otherwise idle satellite, while the parts of several jobs share the cores.
+ * Tools are interrupted when their job is cancelled; they should stop their parts then.
+ */
+public interface ParallelTool extends Tool {
+
+    public Object go(Object parameters, ForkJoinPool pool) throws Exception;
+
+    // run in the common pool, by whoever does not have a pool of their own
+    @Override
+    public default Object go(Object parameters) {
+        try {
+            return go(parameters, ForkJoinPool.commonPool());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package appserver.job;
+
+import java.io.IOException;
+
+/**
+ * Interface [ResultSink]
+ * Receives the results of a streaming tool one at a time. Results are passed on in chunks as they
+ * come, and only as fast as the receiver consumes them: emit() blocks while the receiver is behind.
+ * If the receiver went away, emit() throws a CancellationException, which ends the tool.
+ */
+public interface ResultSink {
+    public void emit(Object result) throws IOException, InterruptedException;
+}
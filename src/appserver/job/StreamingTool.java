@@ -0,0 +1,34 @@
+package appserver.job;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interface [StreamingTool]
+ * A tool whose result is a sequence, produced incrementally. Satellites hand streaming jobs a sink
+ * that sends the results on in chunks, so neither satellite, server nor client hold all of them.
+ * Jobs that are not streamed call go(), which gathers the whole sequence into a list.
+ */
+public interface StreamingTool extends Tool {
+
+    public void stream(Object parameters, ResultSink sink) throws Exception;
+
+    @Override
+    public default Object go(Object parameters) {
+        final List<Object> results = new ArrayList<Object>();
+        try {
+            stream(parameters, new ResultSink() {
+                @Override
+                public void emit(Object result) throws IOException, InterruptedException {
+                    results.add(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+}
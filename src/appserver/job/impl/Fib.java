@@ -0,0 +1,75 @@
+package appserver.job.impl;
+
+import appserver.job.DeterministicTool;
+import appserver.job.ParallelTool;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class [Fib] Tool computing the Fibonacci number of a parameter n by the double recursion, which
+ * makes it a handy job of any size. The recursion is split into fork-join tasks down to a sequential
+ * threshold, below which it runs on primitive longs in the task that got there.
+ */
+public class Fib implements ParallelTool, DeterministicTool {
+
+    // below this, forking costs more than it saves
+    static final int SEQUENTIAL_THRESHOLD = 30;
+    // the largest Fibonacci number a long holds
+    static final int MAX = 92;
+
+    @Override
+    public Object go(Object parameters, ForkJoinPool pool) throws Exception {
+        int n = ((Number) parameters).intValue();
+        if (n < 0 || n > MAX) {
+            throw new IllegalArgumentException("Fib(" + n + ") is out of range 0.." + MAX);
+        }
+
+        FibTask task = new FibTask(n, null);
+        ForkJoinTask<Long> running = pool.submit(task);
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            // the job was cancelled, the parts still to do stop on their own
+            running.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // the plain double recursion
+    static long fib(int n) {
+        return n < 2 ? n : fib(n - 1) + fib(n - 2);
+    }
+
+    // Fib(n) as Fib(n - 1), forked, plus Fib(n - 2), computed right here
+    static class FibTask extends RecursiveTask<Long> {
+
+        final int n;
+        // the task of the whole job, which is cancelled when the job is
+        final FibTask root;
+
+        FibTask(int n, FibTask root) {
+            this.n = n;
+            this.root = root;
+        }
+
+        @Override
+        protected Long compute() {
+            FibTask job = root == null ? this : root;
+            if (job.isCancelled()) {
+                throw new CancellationException();
+            }
+            if (n <= SEQUENTIAL_THRESHOLD) {
+                return fib(n);
+            }
+            FibTask first = new FibTask(n - 1, job);
+            first.fork();
+            long second = new FibTask(n - 2, job).compute();
+            return first.join() + second;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package appserver.job.impl;
+
+import appserver.job.DeterministicTool;
+import appserver.job.DivisibleTool;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Class [PrimeCount] Tool counting the primes below a parameter n, or in a range [from, to) given as a
+ * list of two numbers. A job splits into ranges of about the same work, which are counted on their
+ * own, and the counts add up to the job's result.
+ */
+public class PrimeCount implements DivisibleTool, DeterministicTool {
+
+    // ranges narrower than this are not worth a job of their own
+    static final long MIN_PART = 10000;
+
+    @Override
+    public Object go(Object parameters) {
+        long[] range = range(parameters);
+        long count = 0;
+        for (long candidate = Math.max(2, range[0]); candidate < range[1]; candidate++) {
+            if (Thread.currentThread().isInterrupted()) {
+                // the job was cancelled
+                throw new CancellationException("PrimeCount cancelled");
+            }
+            if (isPrime(candidate)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Object> split(Object parameters, int parts) {
+        long[] range = range(parameters);
+        long width = range[1] - range[0];
+        parts = (int) Math.max(1, Math.min(parts, width / MIN_PART));
+
+        // the larger the numbers, the longer the test, so the parts get narrower towards the end
+        List<Object> ranges = new ArrayList<Object>(parts);
+        long from = range[0];
+        for (int part = 1; part <= parts; part++) {
+            long to = part == parts ? range[1] : range[0] + (long) (width * Math.pow((double) part / parts, 2.0 / 3));
+            ArrayList<Long> partRange = new ArrayList<Long>(2);
+            partRange.add(from);
+            partRange.add(to);
+            ranges.add(partRange);
+            from = to;
+        }
+        return ranges;
+    }
+
+    @Override
+    public Object merge(Object parameters, List<Object> results) {
+        long count = 0;
+        for (Object result : results) {
+            count += ((Number) result).longValue();
+        }
+        return count;
+    }
+
+    // [from, to) from n or a list [from, to]
+    static long[] range(Object parameters) {
+        if (parameters instanceof Number) {
+            return new long[]{0, ((Number) parameters).longValue()};
+        }
+        if (parameters instanceof List && ((List<?>) parameters).size() == 2) {
+            List<?> range = (List<?>) parameters;
+            return new long[]{((Number) range.get(0)).longValue(), ((Number) range.get(1)).longValue()};
+        }
+        throw new IllegalArgumentException("PrimeCount expects n or a range [from, to], got " + parameters);
+    }
+
+    // trial division by 2, 3 and the numbers 6k - 1 and 6k + 1 up to the square root
+    static boolean isPrime(long n) {
+        if (n < 4) {
+            return n > 1;
+        }
+        if (n % 2 == 0 || n % 3 == 0) {
+            return false;
+        }
+        for (long divisor = 5; divisor * divisor <= n; divisor += 6) {
+            if (n % divisor == 0 || n % (divisor + 2) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package appserver.job.impl;
+
+import appserver.job.ResultSink;
+import appserver.job.StreamingTool;
+
+/**
+ * Class [Sequence] Streaming tool that produces the numbers 0 .. n-1, for a parameter n.
+ * However large n is, only the chunks in flight are held in memory anywhere.
+ */
+public class Sequence implements StreamingTool {
+
+    @Override
+    public void stream(Object parameters, ResultSink sink) throws Exception {
+        int count = (Integer) parameters;
+        for (int i = 0; i < count; i++) {
+            sink.emit(i);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package appserver.satellite;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import appserver.job.ResultSink;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class [ChunkedResultSink] Sends the results of a streaming job to the server in chunks.
+ * A chunk is only sent against a credit: the receiving client grants credits as it consumes chunks
+ * (relayed by the server), so at most as many chunks as it granted are ever in flight. Until a credit
+ * arrives, the tool waits in emit() - but not beyond the job's deadline.
+ */
+public class ChunkedResultSink implements ResultSink {
+
+    private final MessageChannel channel;
+    private final long correlationId;
+    private final int chunkSize;
+    // when the job has to be done (milliseconds since the epoch), 0 if never
+    private final long deadline;
+
+    private ArrayList<Object> chunk;
+    private long count = 0;
+    private final Semaphore credits = new Semaphore(0);
+    private volatile boolean cancelled = false;
+
+    public ChunkedResultSink(MessageChannel channel, long correlationId, int chunkSize, long deadline) {
+        this.channel = channel;
+        this.correlationId = correlationId;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.deadline = deadline;
+        this.chunk = new ArrayList<Object>(this.chunkSize);
+    }
+
+    @Override
+    public void emit(Object result) throws IOException, InterruptedException {
+        if (cancelled) {
+            throw new CancellationException("Stream cancelled by receiver");
+        }
+        if (deadline != 0 && System.currentTimeMillis() > deadline) {
+            throw new CancellationException("Deadline passed");
+        }
+        chunk.add(result);
+        count++;
+        if (chunk.size() >= chunkSize) {
+            sendChunk();
+        }
+    }
+
+    /**
+     * Sends what is left over, returns the number of results emitted
+     */
+    public long finish() throws IOException, InterruptedException {
+        if (!chunk.isEmpty()) {
+            sendChunk();
+        }
+        return count;
+    }
+
+    private void sendChunk() throws IOException, InterruptedException {
+        if (deadline == 0) {
+            credits.acquire();
+        } else if (!credits.tryAcquire(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+            throw new CancellationException("Deadline passed while the receiver took no results");
+        }
+        if (cancelled) {
+            throw new CancellationException("Stream cancelled by receiver");
+        }
+
+        Message message = new Message(RESULT_CHUNK, chunk);
+        message.setCorrelationId(correlationId);
+        channel.writeMessage(message);
+        chunk = new ArrayList<Object>(chunkSize);
+    }
+
+    /**
+     * The receiver may take that many more chunks; a negative number cancels the stream
+     */
+    public void grant(int chunks) {
+        if (chunks < 0) {
+            cancel();
+        } else {
+            credits.release(chunks);
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        // wake the tool if it waits for a credit
+        credits.release();
+    }
+}
@@ -0,0 +1,159 @@
+package appserver.satellite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Class [ClassCache] A cache of class files (and other resources) on the local disk of a satellite,
+ * so tools don't have to be downloaded again after a restart. Every resource is stored under its
+ * resource path, next to a small properties file with its content hash and the validators the web
+ * server sent along (ETag, Last-Modified), which are used to revalidate it with a conditional GET.
+ */
+public class ClassCache {
+
+    private final File directory;
+
+    /**
+     * A resource as found in the cache
+     */
+    public static class CachedResource {
+
+        public final byte[] data;
+        public final String hash;
+        public final String eTag;
+        public final String lastModified;
+        // when the resource was last confirmed to be current, in milliseconds
+        public final long verified;
+
+        CachedResource(byte[] data, String hash, String eTag, String lastModified, long verified) {
+            this.data = data;
+            this.hash = hash;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.verified = verified;
+        }
+    }
+
+    public ClassCache(String directory) {
+        this.directory = new File(directory);
+        this.directory.mkdirs();
+    }
+
+    /**
+     * Returns the cached resource, or null if it is not cached or does not match its content hash
+     */
+    public synchronized CachedResource get(String resourcePath) {
+        File dataFile = new File(directory, resourcePath);
+        File metaFile = new File(directory, resourcePath + ".meta");
+        if (!dataFile.exists() || !metaFile.exists()) {
+            return null;
+        }
+
+        try {
+            Properties meta = new Properties();
+            InputStream metaIn = new FileInputStream(metaFile);
+            try {
+                meta.load(metaIn);
+            } finally {
+                metaIn.close();
+            }
+
+            byte[] data = Files.readAllBytes(dataFile.toPath());
+            String hash = hash(data);
+            if (!hash.equals(meta.getProperty("HASH"))) {
+                System.err.println("[ClassCache] Cached \"" + resourcePath + "\" is corrupt, discarding it");
+                dataFile.delete();
+                metaFile.delete();
+                return null;
+            }
+
+            return new CachedResource(data, hash, meta.getProperty("ETAG"), meta.getProperty("LAST_MODIFIED"),
+                    Long.parseLong(meta.getProperty("VERIFIED", "0")));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a resource with the validators the web server sent for it (which may be null)
+     */
+    public synchronized void put(String resourcePath, byte[] data, String eTag, String lastModified) {
+        File dataFile = new File(directory, resourcePath);
+        dataFile.getParentFile().mkdirs();
+
+        try {
+            // write to temporary files and move them in place, so a crash never leaves half a class file
+            File tempData = new File(dataFile.getPath() + ".tmp");
+            OutputStream dataOut = new FileOutputStream(tempData);
+            try {
+                dataOut.write(data);
+            } finally {
+                dataOut.close();
+            }
+
+            writeMeta(resourcePath, hash(data), eTag, lastModified);
+            Files.move(tempData.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[ClassCache] Could not cache \"" + resourcePath + "\": " + e);
+        }
+    }
+
+    /**
+     * Records that the web server confirmed the cached resource to be current
+     */
+    public synchronized void verified(String resourcePath, CachedResource resource) {
+        try {
+            writeMeta(resourcePath, resource.hash, resource.eTag, resource.lastModified);
+        } catch (IOException e) {
+            System.err.println("[ClassCache] Could not update \"" + resourcePath + "\": " + e);
+        }
+    }
+
+    private void writeMeta(String resourcePath, String hash, String eTag, String lastModified) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty("HASH", hash);
+        meta.setProperty("VERIFIED", "" + System.currentTimeMillis());
+        if (eTag != null) {
+            meta.setProperty("ETAG", eTag);
+        }
+        if (lastModified != null) {
+            meta.setProperty("LAST_MODIFIED", lastModified);
+        }
+
+        File metaFile = new File(directory, resourcePath + ".meta");
+        File tempMeta = new File(metaFile.getPath() + ".tmp");
+        OutputStream metaOut = new FileOutputStream(tempMeta);
+        try {
+            meta.store(metaOut, resourcePath);
+        } finally {
+            metaOut.close();
+        }
+        Files.move(tempMeta.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Hex encoded SHA-256 hash of some bytes
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package appserver.satellite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import web.SimpleWebServer;
+
+/**
+ * Class [ClassLoadBenchmark] Measures how long HTTPClassLoader takes to load many small classes
+ * from a SimpleWebServer. Generates the classes into a temporary document root, starts a web server
+ * on it in this JVM and loads all of them, once over a persistent connection and once with a new
+ * connection per class.
+ *
+ * Usage: java appserver.satellite.ClassLoadBenchmark [number of classes] [web server port]
+ */
+public class ClassLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 12699;
+
+        File docRoot = Files.createTempDirectory("classload").toFile();
+        new File(docRoot, "bench").mkdirs();
+        for (int i = 0; i < classes; i++) {
+            write(new File(docRoot, "bench/C" + i + ".class"), emptyClass("bench/C" + i));
+        }
+
+        File properties = new File(docRoot, "WebServer.properties");
+        write(properties, ("PORT\t" + port + "\nDOC_ROOT\t" + docRoot.getAbsolutePath() + "\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        // keep the logging of server and loader out of the measurement
+        PrintStream out = System.out;
+        PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(silent);
+        System.setErr(silent);
+
+        Thread webServer = new Thread(new SimpleWebServer(properties.getAbsolutePath()));
+        webServer.setDaemon(true);
+        webServer.start();
+        Thread.sleep(500);
+
+        // warm up, then measure
+        load(port, classes, true);
+        long persistent = load(port, classes, true);
+        long perClass = load(port, classes, false);
+
+        out.println("Classes: " + classes);
+        report(out, "persistent connection ", persistent, classes);
+        report(out, "connection per class  ", perClass, classes);
+        System.exit(0);
+    }
+
+    // loads all generated classes with a fresh class loader, returns the elapsed nanoseconds
+    static long load(int port, int classes, boolean keepAlive) throws ClassNotFoundException {
+        HTTPClassLoader classLoader = new HTTPClassLoader("127.0.0.1", port);
+        classLoader.setKeepAlive(keepAlive);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < classes; i++) {
+            classLoader.loadClass("bench.C" + i);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    static void report(PrintStream out, String variant, long elapsed, int classes) {
+        out.printf("%s: %8.1f ms total, %6.3f ms per class%n", variant, elapsed / 1e6, elapsed / 1e6 / classes);
+    }
+
+    // the smallest valid class file: public class <name> extends java.lang.Object, no members
+    static byte[] emptyClass(String internalName) {
+        byte[] name = internalName.getBytes(StandardCharsets.UTF_8);
+        byte[] superName = "java/lang/Object".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream classFile = new DataOutputStream(bytes);
+        try {
+            classFile.writeInt(0xCAFEBABE);
+            classFile.writeShort(0);            // minor version
+            classFile.writeShort(52);           // major version, Java 8
+            classFile.writeShort(5);            // constant pool count + 1
+            classFile.writeByte(7);             // #1 Class #2
+            classFile.writeShort(2);
+            classFile.writeByte(1);             // #2 Utf8 name
+            classFile.writeShort(name.length);
+            classFile.write(name);
+            classFile.writeByte(7);             // #3 Class #4
+            classFile.writeShort(4);
+            classFile.writeByte(1);             // #4 Utf8 super class name
+            classFile.writeShort(superName.length);
+            classFile.write(superName);
+            classFile.writeShort(0x0021);       // public super
+            classFile.writeShort(1);            // this class
+            classFile.writeShort(3);            // super class
+            classFile.writeShort(0);            // interfaces
+            classFile.writeShort(0);            // fields
+            classFile.writeShort(0);            // methods
+            classFile.writeShort(0);            // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        OutputStream fileOut = new FileOutputStream(file);
+        try {
+            fileOut.write(data);
+        } finally {
+            fileOut.close();
+        }
+    }
+}
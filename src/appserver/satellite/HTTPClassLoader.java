@@ -2,7 +2,11 @@ package appserver.satellite;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Class [HTTPClassLoader] Instances of this class can load class files from web servers
@@ -15,6 +19,24 @@ public class HTTPClassLoader extends ClassLoader {
     int port;
     String classRootDir;
 
+    // local disk cache of class files, and how long a cached class is used without asking the web server
+    ClassCache classCache = null;
+    long classCacheMaxAge = 0;
+
+    // name of the tool bundle (a JAR with all classes of a package) looked for in every package directory,
+    // and the class files of the bundles fetched so far, by package path and entry name
+    String bundleName = null;
+    Map<String, Map<String, byte[]>> bundles = new HashMap<String, Map<String, byte[]>>();
+
+    // the persistent connection to the web server, opened on demand
+    static final int BUFFER_SIZE = 64 * 1024;
+    boolean keepAlive = true;
+    // milliseconds to connect and to wait for data, 0 waits forever
+    int timeout = 0;
+    Socket connection = null;
+    DataInputStream readFromNet = null;
+    OutputStream writeToNet = null;
+
     /**
      * Common Constructor
      */
@@ -31,11 +53,46 @@ public class HTTPClassLoader extends ClassLoader {
         this("localhost", 23657);
     }
 
+    /**
+     * Keep downloaded class files on disk. Cached classes are revalidated with a conditional GET,
+     * unless they were confirmed to be current less than maxAge milliseconds ago
+     */
+    public void setClassCache(ClassCache classCache, long maxAge) {
+        this.classCache = classCache;
+        this.classCacheMaxAge = maxAge;
+    }
+
+    /**
+     * Keep the connection to the web server open between requests (the default), or open one per request
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Give up on the web server if connecting, or waiting for data, takes longer than that many milliseconds
+     * (0, the default, waits forever)
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Look for a tool bundle of this name in the directory of a package, before loading classes of that
+     * package one by one. The whole bundle is fetched in one request and its classes are defined from memory.
+     */
+    public void setBundleName(String bundleName) {
+        this.bundleName = bundleName;
+    }
+
     /**
      * Overrides corresponding method in superclass <code>ClassLoader</code>
      */
     public Class findClass(String className) throws ClassNotFoundException {
-        byte[] classData = loadClassData(className);
+        byte[] classData = loadBundledClassData(className);
+        if (classData == null) {
+            classData = loadClassData(className);
+        }
 
         Class classObject = defineClass(className, classData, 0, classData.length);
         System.out.println("Class object \"" + className + "\" created");
@@ -43,116 +100,288 @@ public class HTTPClassLoader extends ClassLoader {
     }
 
     /**
-     * Auxiliary method for <code>findClass()</code>. Provides for loading of
-     * the bytes of a class file from a web server
+     * Auxiliary method for <code>findClass()</code>. Looks the class up in the bundle of its package,
+     * fetching the bundle first if this package was not asked for before. Returns null if there is no
+     * bundle or the class is not in it. findClass() is only called with the class loader locked.
      */
-    private byte[] loadClassData(String className) throws ClassNotFoundException {
+    private byte[] loadBundledClassData(String className) throws ClassNotFoundException {
+        int lastDot = className.lastIndexOf('.');
+        if (bundleName == null || lastDot < 0) {
+            return null;
+        }
 
-        DataInputStream readFromNet = null;
-        PrintStream writeToNet = null;
+        String packagePath = className.substring(0, lastDot).replace('.', '/');
+        Map<String, byte[]> bundle = bundles.get(packagePath);
+        if (bundle == null) {
+            bundle = loadBundle(packagePath + "/" + bundleName);
+            bundles.put(packagePath, bundle);
+        }
 
-        // aux fields for processing HTTP-header
-        byte[] protocolHeaderLine = new byte[256];
-        String inputLine;
+        // every class is defined once, its bytes are not needed afterwards
+        return bundle.remove(className.replace('.', '/') + ".class");
+    }
 
-        // aux fields for reading bytes of class file
-        byte[] classData = null;
-        int bytesRead = 0;
-        int offset = 0;
-        int blockSize = 128;
+    /**
+     * Fetches a tool bundle and indexes its class files by entry name. A package without a bundle
+     * gets an empty index, so its classes are loaded one by one without asking for the bundle again.
+     */
+    private Map<String, byte[]> loadBundle(String bundlePath) {
+        Map<String, byte[]> bundle = new HashMap<String, byte[]>();
 
+        byte[] bundleData;
         try {
-            Socket classDataSocket = new Socket(host, port);
+            bundleData = loadResourceData(bundlePath);
+        } catch (ClassNotFoundException e) {
+            System.err.println("No tool bundle \"" + bundlePath + "\", loading classes one by one");
+            return bundle;
+        }
 
-            readFromNet = new DataInputStream(classDataSocket.getInputStream());
-            writeToNet = new PrintStream(classDataSocket.getOutputStream());
+        try {
+            JarInputStream entries = new JarInputStream(new ByteArrayInputStream(bundleData));
+            JarEntry entry;
+            byte[] buffer = new byte[8192];
+            while ((entry = entries.getNextJarEntry()) != null) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
 
-            // process resource string
-            String classPath = className.replace('.', '/') + ".class";
+                ByteArrayOutputStream entryData = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : buffer.length);
+                int bytesRead;
+                while ((bytesRead = entries.read(buffer)) != -1) {
+                    entryData.write(buffer, 0, bytesRead);
+                }
+                bundle.put(entry.getName(), entryData.toByteArray());
+            }
+            entries.close();
+        } catch (IOException e) {
+            System.err.println("Tool bundle \"" + bundlePath + "\" is corrupt: " + e);
+            bundle.clear();
+        }
 
-            String stringToNet = "GET " + classPath + " HTTP/1.0 \r\n\r\n";
-            System.err.println("\nRequest to Server: \n\"GET " + classPath + " HTTP/1.0\"");
+        System.err.println("Tool bundle \"" + bundlePath + "\" loaded, " + bundle.size() + " classes");
+        return bundle;
+    }
 
-            //  ... requesting class file ...
-            writeToNet.print(stringToNet);
-            writeToNet.flush();
+    /**
+     * Auxiliary method for <code>findClass()</code>. Provides for loading of
+     * the bytes of a class file, from the disk cache if it is current, from a web server otherwise
+     */
+    private byte[] loadClassData(String className) throws ClassNotFoundException {
+        return loadResourceData(className.replace('.', '/') + ".class");
+    }
 
-	    // **************************************************************************************************
-            // process header information ...
-            System.err.println("\nServer responds:");
-            int i = -1;
-            while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                ; // empty loop
+    /**
+     * Loads the bytes of a resource (a class file or a tool bundle),
+     * from the disk cache if it is current, from a web server otherwise
+     */
+    private byte[] loadResourceData(String resourcePath) throws ClassNotFoundException {
+        ClassCache.CachedResource cached = null;
+        if (classCache != null) {
+            cached = classCache.get(resourcePath);
+            if (cached != null && System.currentTimeMillis() - cached.verified < classCacheMaxAge) {
+                System.err.println("Bytes \"" + resourcePath + "\" loaded from disk cache");
+                return cached.data;
             }
-            i--;
-            inputLine = new String(protocolHeaderLine, 0, i);
-            System.err.println(inputLine);
-
-            StringTokenizer tokenizer = new StringTokenizer(inputLine);
-            tokenizer.nextToken();
-            String returnCode = tokenizer.nextToken();
-
-            if (returnCode.equals("200")) {
-                // skip the rest
-                while (true) {
-                    i = -1;
-                    while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                        ; // empty loop
-                    }
-                    i--;
-                    inputLine = new String(protocolHeaderLine, 0, i);
-                    System.err.println(inputLine);
-
-                    // look for empty line, there is the beginning of the class file data
-                    if (inputLine.trim().equals("")) {
-                        break; // ... this is the beginning
-                    }
-                }
-            } else {
-                throw new ClassNotFoundException("Class file not found");
+        }
+
+        try {
+            return loadResourceData(resourcePath, cached);
+        } catch (IOException ioe) {
+            // web server not reachable - what we have on disk is better than nothing
+            if (cached != null) {
+                System.err.println("Web server not reachable (" + ioe + "), using cached \"" + resourcePath + "\"");
+                return cached.data;
             }
+            throw new ClassNotFoundException(ioe.toString());
+        }
+    }
 
-	    // **************************************************************************************************
-            // read the bytes of the class file ...
-            classData = new byte[blockSize];
+    /**
+     * Loads the bytes of a resource from a web server, asking only for changes if it is cached already.
+     * Requests go over one persistent HTTP/1.1 connection; if a reused connection turns out to be closed
+     * by the web server in the meantime, the request is repeated once on a fresh connection.
+     */
+    private synchronized byte[] loadResourceData(String resourcePath, ClassCache.CachedResource cached) throws ClassNotFoundException, IOException {
+        boolean reused = connection != null;
+        try {
+            return fetch(resourcePath, cached);
+        } catch (IOException ioe) {
+            closeConnection();
+            if (!reused) {
+                throw ioe;
+            }
+            return fetch(resourcePath, cached);
+        }
+    }
 
-            while (true) {
-                bytesRead = readFromNet.read(classData, offset, blockSize);
+    /**
+     * Sends one GET request and reads the response, leaving the connection open if the web server allows it
+     */
+    private byte[] fetch(String resourcePath, ClassCache.CachedResource cached) throws ClassNotFoundException, IOException {
+        if (connection == null) {
+            openConnection();
+        }
 
-				// End-of-Stream reached
-                // is EOS reached immediately, the file is empty or not there
-                if (bytesRead == -1) {
-                    // EOS or no data
-                    break;
-                }
+        // request the resource, a cached resource is only sent again if it changed
+        StringBuilder request = new StringBuilder(128);
+        request.append("GET /").append(resourcePath).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        if (!keepAlive) {
+            request.append("Connection: close\r\n");
+        }
+        request.append("Accept-Encoding: gzip\r\n");
+        if (cached != null) {
+            if (cached.eTag != null) {
+                request.append("If-None-Match: ").append(cached.eTag).append("\r\n");
+            }
+            if (cached.lastModified != null) {
+                request.append("If-Modified-Since: ").append(cached.lastModified).append("\r\n");
+            }
+        }
+        request.append("\r\n");
+        System.err.println("\nRequest to Server: \n\"GET /" + resourcePath + " HTTP/1.1\"");
 
-                offset += bytesRead;
+        writeToNet.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        writeToNet.flush();
 
-                // enlarge field, if necessary
-                if (offset + blockSize >= classData.length) {
-                    byte[] temp = new byte[classData.length * 2];
-                    System.arraycopy(classData, 0, temp, 0, offset);
-                    classData = temp;
-                }
+        // process status line and header
+        String statusLine = readLine();
+        if (statusLine == null) {
+            throw new EOFException("Connection closed by web server");
+        }
+        System.err.println("\nServer responds:\n" + statusLine);
+
+        StringTokenizer tokenizer = new StringTokenizer(statusLine);
+        String httpVersion = tokenizer.nextToken();
+        String returnCode = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+
+        Map<String, String> header = new HashMap<String, String>();
+        String inputLine;
+        while ((inputLine = readLine()) != null && !inputLine.isEmpty()) {
+            int colon = inputLine.indexOf(':');
+            if (colon > 0) {
+                header.put(inputLine.substring(0, colon).trim().toLowerCase(), inputLine.substring(colon + 1).trim());
             }
+        }
 
-            // cut field to proper size
-            if (offset < classData.length) {
-                byte[] temp = new byte[offset];
-                System.arraycopy(classData, 0, temp, 0, offset);
-                classData = temp;
+        // the connection can be used again if both sides want that and the body has a known length
+        String connectionHeader = header.get("connection");
+        boolean persistent = keepAlive
+                && (httpVersion.equals("HTTP/1.1") ? !"close".equalsIgnoreCase(connectionHeader) : "keep-alive".equalsIgnoreCase(connectionHeader));
+
+        byte[] body;
+        if (returnCode.equals("304") || returnCode.equals("204")) {
+            body = new byte[0];
+        } else {
+            String contentLength = header.get("content-length");
+            if (contentLength != null) {
+                // exactly as much as announced, read in as few calls as the network allows
+                body = new byte[Integer.parseInt(contentLength)];
+                readFromNet.readFully(body);
+            } else {
+                body = readToEnd();
+                persistent = false;
             }
-        } catch (IOException ioe) {
-            throw new ClassNotFoundException(ioe.toString());
+        }
+
+        if (!persistent) {
+            closeConnection();
+        }
+
+        // class files come compressed if the web server has them that way
+        if ("gzip".equalsIgnoreCase(header.get("content-encoding")) && body.length > 0) {
+            body = gunzip(body);
+        }
+
+        if (returnCode.equals("304") && cached != null) {
+            // not modified, the cached resource is current
+            classCache.verified(resourcePath, cached);
+            System.err.println("Bytes \"" + resourcePath + "\" current in disk cache");
+            return cached.data;
+        } else if (!returnCode.equals("200")) {
+            throw new ClassNotFoundException("Class file not found");
         }
 
         // class file data there?
-        if (classData.length == 0) {
+        if (body.length == 0) {
             throw new ClassNotFoundException("No class file present or class file empty");
         }
 
-        System.err.println("Bytes Class \"" + className + "\" loaded");
+        System.err.println("Bytes \"" + resourcePath + "\" loaded");
+
+        if (classCache != null) {
+            classCache.put(resourcePath, body, header.get("etag"), header.get("last-modified"));
+        }
+
+        return body;
+    }
+
+    private void openConnection() throws IOException {
+        connection = new Socket();
+        connection.connect(new InetSocketAddress(host, port), timeout);
+        connection.setSoTimeout(timeout);
+        connection.setTcpNoDelay(true);
+        readFromNet = new DataInputStream(new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE));
+        writeToNet = new BufferedOutputStream(connection.getOutputStream());
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+            }
+        }
+        connection = null;
+        readFromNet = null;
+        writeToNet = null;
+    }
+
+    /**
+     * Reads a header line of any length from the buffered stream, without the line terminator.
+     * Returns null at the end of the stream.
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = readFromNet.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Decompresses a gzip compressed body
+     */
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream body = new ByteArrayOutputStream(compressed.length * 3);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            body.write(buffer, 0, bytesRead);
+        }
+        in.close();
+        return body.toByteArray();
+    }
 
-        return classData;
+    /**
+     * Reads a body without Content-Length, it ends when the web server closes the connection
+     */
+    private byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = readFromNet.read(buffer)) != -1) {
+            body.write(buffer, 0, bytesRead);
+        }
+        return body.toByteArray();
     }
 }
@@ -0,0 +1,124 @@
+package appserver.satellite;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.WORK_REQUEST;
+import appserver.comm.WireProtocol;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class [Heartbeat] Keeps a satellite registered with the server: registers it, then sends its load
+ * every interval over the same connection, so the server knows it is alive. If the connection breaks,
+ * e.g. because the server restarted, it connects and registers again. On shutdown the satellite
+ * unregisters, so the server stops sending it jobs right away.
+ * <p>
+ * A satellite that ran out of jobs asks for work over this connection too, so the server can have
+ * jobs waiting at a busier satellite sent here instead.
+ */
+public class Heartbeat implements Runnable {
+
+    private final ConnectivityInfo satelliteInfo;
+    private final ConnectivityInfo serverInfo;
+    private final JobExecutor jobExecutor;
+    private final long interval;
+    // milliseconds between requests for work at least, 0 to never ask
+    private final long workRequestInterval;
+    private final AtomicLong lastWorkRequest = new AtomicLong();
+
+    private volatile MessageChannel channel = null;
+    private volatile boolean stopped = false;
+
+    public Heartbeat(ConnectivityInfo satelliteInfo, ConnectivityInfo serverInfo, JobExecutor jobExecutor, long interval,
+            long workRequestInterval) {
+        this.satelliteInfo = satelliteInfo;
+        this.serverInfo = serverInfo;
+        this.jobExecutor = jobExecutor;
+        this.interval = interval;
+        this.workRequestInterval = workRequestInterval;
+    }
+
+    @Override
+    public void run() {
+        // complain once, not for every attempt to reconnect
+        boolean failing = false;
+        while (!stopped) {
+            try {
+                if (channel == null) {
+                    register();
+                    failing = false;
+                }
+                channel.writeMessage(new Message(HEARTBEAT, jobExecutor.sampleLoad()));
+            } catch (IOException e) {
+                if (!failing) {
+                    System.err.println("[Heartbeat] Server at " + serverInfo.getHost() + ":" + serverInfo.getPort()
+                            + " not reachable, retrying: " + e);
+                    failing = true;
+                }
+                disconnect();
+            }
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // connect to the server and register, the connection stays open for the heartbeats
+    private void register() throws IOException {
+        Socket server = new Socket(serverInfo.getHost(), serverInfo.getPort());
+        MessageChannel newChannel = WireProtocol.connect(server);
+        newChannel.writeMessage(new Message(REGISTER_SATELLITE, satelliteInfo));
+        channel = newChannel;
+        System.out.println("[Heartbeat] Satellite " + satelliteInfo.getName() + " registered with server");
+    }
+
+    /**
+     * Asks the server for jobs waiting at other satellites, unless we asked a moment ago
+     */
+    public void requestWork() {
+        MessageChannel current = channel;
+        long now = System.currentTimeMillis();
+        long last = lastWorkRequest.get();
+        if (current == null || workRequestInterval <= 0 || now - last < workRequestInterval
+                || !lastWorkRequest.compareAndSet(last, now)) {
+            return;
+        }
+        try {
+            current.writeMessage(new Message(WORK_REQUEST, jobExecutor.getLoadReport()));
+        } catch (IOException e) {
+            // the next heartbeat reconnects
+        }
+    }
+
+    /**
+     * Stops the heartbeats and lets the server know the satellite is going away
+     */
+    public void unregister() {
+        stopped = true;
+        MessageChannel current = channel;
+        if (current != null) {
+            try {
+                current.writeMessage(new Message(UNREGISTER_SATELLITE, satelliteInfo.getName()));
+            } catch (IOException e) {
+                // the server will notice the missing heartbeats
+            }
+        }
+        disconnect();
+    }
+
+    private void disconnect() {
+        MessageChannel current = channel;
+        channel = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package appserver.satellite;
+
+import appserver.comm.LoadReport;
+import appserver.job.Job;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Class [JobExecutor] The execution engine of a satellite: a fixed number of worker threads for the
+ * CPU-bound work of the tools, fed by a bounded queue. When the queue is full, jobs are rejected
+ * right away instead of piling up, so the server can send them somewhere else.
+ * Jobs of a higher priority are taken from the queue first, jobs of the same priority in the order they came.
+ * Jobs still waiting can be stolen for another satellite, and a listener hears when the queue ran dry.
+ * <p>
+ * Tools that split their work themselves (ParallelTool) get a fork-join pool to run the parts in, one
+ * for all their jobs, so a single large job can use every core while the parts of all jobs share them.
+ * The threads reading requests from the network never execute jobs themselves.
+ */
+public class JobExecutor {
+
+    private final ThreadPoolExecutor workers;
+    private final ForkJoinPool forkJoinPool;
+    private final int queueCapacity;
+    // as of the last sampleLoad()
+    private volatile double cpuLoad = -1;
+    // order of arrival, among jobs of the same priority
+    private final AtomicLong sequence = new AtomicLong();
+    // told when a worker finished a job and found no other waiting
+    private volatile Runnable idleListener = null;
+
+    public JobExecutor(final String satelliteName, int workerCount, int queueCapacity, int parallelism) {
+        this.queueCapacity = queueCapacity;
+
+        forkJoinPool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(satelliteName + "-fork-" + count.incrementAndGet());
+                return thread;
+            }
+        }, null, false);
+
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable job) {
+                        return new Thread(job, satelliteName + "-worker-" + count.incrementAndGet());
+                    }
+                }) {
+            @Override
+            protected void afterExecute(Runnable job, Throwable error) {
+                Runnable listener = idleListener;
+                if (listener != null && getQueue().isEmpty()) {
+                    listener.run();
+                }
+            }
+        };
+        workers.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queues a job of normal priority for execution, returns false if the queue is full
+     */
+    public boolean submit(Runnable job) {
+        return submit(job, Job.NORMAL_PRIORITY);
+    }
+
+    /**
+     * Queues a job for execution ahead of the jobs of lower priority, returns false if the queue is full
+     */
+    public boolean submit(Runnable job, int priority) {
+        // the priority queue itself is unbounded: jobs submitted at the same moment may overshoot the capacity a little
+        if (workers.getQueue().size() >= queueCapacity) {
+            return false;
+        }
+        try {
+            workers.execute(new QueuedJob(job, priority, sequence.getAndIncrement()));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes a job out of the queue, returns false if it is not (any more) waiting there
+     */
+    public boolean remove(final Runnable job) {
+        return workers.getQueue().removeIf(new Predicate<Runnable>() {
+            @Override
+            public boolean test(Runnable queued) {
+                return ((QueuedJob) queued).job == job;
+            }
+        });
+    }
+
+    /**
+     * Takes up to that many jobs the filter accepts out of the queue, to run them somewhere else.
+     * Those that would wait longest go first: of the lowest priority, and among them those that came last
+     */
+    public List<Runnable> steal(int count, Predicate<Runnable> stealable) {
+        Object[] queued = workers.getQueue().toArray();
+        Arrays.sort(queued, Collections.reverseOrder());
+
+        List<Runnable> stolen = new ArrayList<Runnable>();
+        for (Object element : queued) {
+            if (stolen.size() >= count) {
+                break;
+            }
+            QueuedJob queuedJob = (QueuedJob) element;
+            // a worker may have taken it in the meantime
+            if (stealable.test(queuedJob.job) && workers.getQueue().remove(queuedJob)) {
+                stolen.add(queuedJob.job);
+            }
+        }
+        return stolen;
+    }
+
+    /**
+     * Sets what to do when a worker finished a job and no other one is waiting. It runs on the worker
+     */
+    public void setIdleListener(Runnable listener) {
+        idleListener = listener;
+    }
+
+    /**
+     * The pool the parts of parallel jobs run in
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    public int getWorkerCount() {
+        return workers.getCorePoolSize();
+    }
+
+    public LoadReport getLoadReport() {
+        return new LoadReport(workers.getQueue().size(), queueCapacity, workers.getActiveCount(), workers.getCorePoolSize(), cpuLoad);
+    }
+
+    /**
+     * The load with a fresh CPU measurement, which is too expensive to take for every job
+     */
+    public LoadReport sampleLoad() {
+        cpuLoad = measureCpuLoad();
+        return getLoadReport();
+    }
+
+    // recent CPU load of the machine where the runtime tells, else the load average per processor
+    private static double measureCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double average = os.getSystemLoadAverage();
+        return average < 0 ? -1 : Math.min(1, average / os.getAvailableProcessors());
+    }
+
+    // a job in the queue, with what decides its turn
+    private static class QueuedJob implements Runnable, Comparable<QueuedJob> {
+
+        final Runnable job;
+        final int priority;
+        final long sequence;
+
+        QueuedJob(Runnable job, int priority, long sequence) {
+            this.job = job;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            job.run();
+        }
+
+        @Override
+        public int compareTo(QueuedJob other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
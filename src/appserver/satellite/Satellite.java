@@ -1,22 +1,50 @@
 package appserver.satellite;
 
+import appserver.job.DeterministicTool;
 import appserver.job.Job;
 import appserver.comm.ConnectivityInfo;
+import appserver.comm.LoadReport;
 import appserver.job.UnknownToolException;
 import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.StealRequest;
+import appserver.comm.WireProtocol;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
+import static appserver.comm.MessageTypes.JOB_BATCH;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REJECTED;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
-import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.JOB_STOLEN;
+import static appserver.comm.MessageTypes.LOAD_REPORT;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STEAL_JOBS;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import appserver.job.JobFailedException;
+import appserver.job.ParallelTool;
+import appserver.job.StreamingTool;
 import appserver.job.Tool;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import utils.PropertyHandler;
@@ -33,7 +61,16 @@ public class Satellite extends Thread {
     private ConnectivityInfo satelliteInfo = new ConnectivityInfo();
     private ConnectivityInfo serverInfo = new ConnectivityInfo();
     private HTTPClassLoader classLoader = null;
-    private Hashtable toolsCache = null;
+    private ToolCache toolsCache = null;
+    private JobExecutor jobExecutor = null;
+    // stops jobs whose deadline passed
+    private ScheduledThreadPoolExecutor deadlines = null;
+    private long loadReportInterval;
+    private long heartbeatInterval;
+    private long workRequestInterval;
+    private int streamChunkSize;
+    // streaming jobs may hold a worker while their receivers take no results, so only that many run at once
+    private Semaphore streamSlots = null;
     
     private PropertyHandler satelliteProperties;
     private PropertyHandler serverProperties;
@@ -65,6 +102,14 @@ public class Satellite extends Thread {
         }
         satelliteInfo.setPort(Integer.parseInt(satelliteProperties.getProperty("PORT")));
         satelliteInfo.setName(satelliteProperties.getProperty("NAME"));
+
+        // wire format for talking to the server, requests from the server come in whatever format it uses
+        try {
+            WireProtocol.configure(satelliteProperties);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
         
         // get connectivity information of the server
         try {
@@ -101,68 +146,93 @@ public class Satellite extends Thread {
 
         // see init class loader      
         initClassLoader();
+
+        // fetch whole tool bundles instead of single class files, where the web server has them
+        String bundleName = satelliteProperties.getProperty("TOOL_BUNDLE");
+        if (bundleName != null) {
+            classLoader.setBundleName(bundleName.trim());
+        }
+
+        // keep the downloaded tool classes on disk, so a restarted satellite does not fetch them again
+        String classCacheDir = satelliteProperties.getProperty("CLASS_CACHE_DIR");
+        if (classCacheDir != null) {
+            long maxAge = Long.parseLong(satelliteProperties.getProperty("CLASS_CACHE_MAX_AGE", "0").trim());
+            classLoader.setClassCache(new ClassCache(classCacheDir.trim()), maxAge * 1000);
+            System.err.println("[Satellite.Satellite] Class cache in " + classCacheDir.trim());
+        }
         
         // create tools cache
         // -------------------
-        toolsCache = new Hashtable();
+        int toolCacheCapacity = Integer.parseInt(satelliteProperties.getProperty("TOOL_CACHE_CAPACITY", "64").trim());
+        String toolCachePolicy = satelliteProperties.getProperty("TOOL_CACHE_POLICY", ToolCache.LRU).trim();
+        toolsCache = new ToolCache(classLoader, toolCacheCapacity, toolCachePolicy);
+
+        // create the execution engine, one worker per processor unless configured otherwise
+        // ---------------------------------------------------------------------------------
+        int workers = Integer.parseInt(satelliteProperties.getProperty("WORKERS", "" + Runtime.getRuntime().availableProcessors()).trim());
+        int queueCapacity = Integer.parseInt(satelliteProperties.getProperty("QUEUE_CAPACITY", "" + 4 * workers).trim());
+        loadReportInterval = Long.parseLong(satelliteProperties.getProperty("LOAD_REPORT_INTERVAL", "200").trim());
+        heartbeatInterval = Long.parseLong(satelliteProperties.getProperty("HEARTBEAT_INTERVAL", "1000").trim());
+        workRequestInterval = Long.parseLong(satelliteProperties.getProperty("WORK_REQUEST_INTERVAL", "100").trim());
+        int parallelism = Integer.parseInt(satelliteProperties.getProperty("FORK_JOIN_PARALLELISM", "" + Runtime.getRuntime().availableProcessors()).trim());
+        jobExecutor = new JobExecutor(satelliteInfo.getName(), workers, queueCapacity, parallelism);
+        deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, satelliteInfo.getName() + "-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // jobs mostly finish in time, don't keep their timers around until then
+        deadlines.setRemoveOnCancelPolicy(true);
+        streamChunkSize = Integer.parseInt(satelliteProperties.getProperty("STREAM_CHUNK_SIZE", "1024").trim());
+        int maxStreams = Integer.parseInt(satelliteProperties.getProperty("MAX_STREAMS", "" + Math.max(1, workers / 2)).trim());
+        streamSlots = new Semaphore(maxStreams);
+        System.err.println("[Satellite.Satellite] " + workers + " workers, queue capacity " + queueCapacity + ", fork-join parallelism " + parallelism
+                + ", " + maxStreams + " streams at once");
     }
 
     @Override
     public void run() {
 
-        // register this satellite with the SatelliteManager on the server
-         ObjectOutputStream writeToNet = null;
-        Message message = null;
-
-        // connect to the server
-        Socket server = null;
-        try {
-            server = new Socket(serverInfo.getHost(), serverInfo.getPort());
-        } catch (IOException ex) {
-            System.err.println("[Satellite.run] Opening socket to server failed");
-            ex.printStackTrace();
-            System.exit(1);
-        }
-        System.out.println("[Satellite.run] Satellite " + satelliteInfo.getName() + " connected to server, transfer connectivity information ...");
-
-        // setting up output stream
-        try {
-            writeToNet = new ObjectOutputStream(server.getOutputStream());
-            //readFromNet = new ObjectInputStream(server.getInputStream());
-        } catch (IOException ex) {
-            System.err.println("[Satellite.run] Opening object stream to server failed");
-            ex.printStackTrace();
-            System.exit(1);
-        }
-
-        // creating message containing satellite connectivity information
-        message = new Message();
-        message.setType(REGISTER_SATELLITE);
-        message.setContent(satelliteInfo);
-
-        // sending message object with connectivity info to server
-        try {
-            writeToNet.writeObject(message);
-            writeToNet.flush();
-        } catch (Exception ex) {
-            System.err.println("[Satellite.run] Writing SatelliteInfo to server failed");
-            ex.printStackTrace();
-            System.exit(1);
-        }
-        
-        
         // create server socket
         ServerSocket serverSocket;
         
         String satellitePort = satelliteProperties.getProperty("PORT");
         String satelliteName = satelliteProperties.getProperty("NAME");
+        try {
+            serverSocket = new ServerSocket(Integer.parseInt(satellitePort));
+        } catch (IOException e) {
+            System.err.println(satelliteName + " ERROR: " + e);
+            return;
+        }
+
+        // register this satellite with the SatelliteManager on the server, and keep telling the
+        // server that it is alive and how loaded it is; unregister when shutting down
+        final Heartbeat heartbeat = new Heartbeat(satelliteInfo, serverInfo, jobExecutor, heartbeatInterval, workRequestInterval);
+        Thread heartbeatThread = new Thread(heartbeat, satelliteName + "-heartbeat");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat.unregister();
+            }
+        }));
+
+        // when we run out of jobs, ask for some of those waiting at busier satellites
+        jobExecutor.setIdleListener(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat.requestWork();
+            }
+        });
+
         // start taking job requests in a server loop     
         // @Note to self Otte's suggestion was different from ours. May need to revist this.   
         try
         { 
-            // creates an instance of a server socket 
-            serverSocket = new ServerSocket(Integer.parseInt(satellitePort));
-
             // server loop: infinitely loops and accepts all clients without worrying about race conditions
             while (true) 
             {
@@ -177,93 +247,486 @@ public class Satellite extends Thread {
     }
 
     // @Note to self this class is also different in Otte's suggestion. Revist this.
-    // inner helper class that is instanciated in above server loop and processes job requests
+    // inner helper class that is instanciated in above server loop and processes job requests.
+    // The server keeps its connections open, so one SatelliteThread serves many requests, each tagged
+    // with a correlation id. It only reads requests; the jobs are executed by the JobExecutor and
+    // their results go back in the order they finish. A job that finds the queue full is rejected
+    // with JOB_REJECTED, and the load of the satellite is reported back along with the results.
+    // Jobs the server cancels with CANCEL_JOB are stopped, so are jobs whose deadline passes.
     private class SatelliteThread extends Thread {
 
         Satellite satellite = null;
         Socket jobRequest = null;
-        ObjectInputStream readFromNet = null;
-        ObjectOutputStream writeToNet = null;
+        MessageChannel channel = null;
         Message message = null;
         String satelliteName = satelliteProperties.getProperty("NAME");
 
+        // streaming jobs of this connection that are not done, by correlation id
+        Map<Long, ChunkedResultSink> streams = new ConcurrentHashMap<Long, ChunkedResultSink>();
+        // single jobs of this connection that are not done, by correlation id
+        Map<Long, JobTask> tasks = new ConcurrentHashMap<Long, JobTask>();
+        // batch slices of this connection that are not done, and whether they were cancelled, by correlation id
+        Map<Long, AtomicBoolean> batches = new ConcurrentHashMap<Long, AtomicBoolean>();
+
+        // when the load was reported last on this connection, and the queue depth reported
+        long lastReportTime = 0;
+        int lastReportedDepth = 0;
+
         SatelliteThread(Socket jobRequest, Satellite satellite) {
             this.jobRequest = jobRequest;
             this.satellite = satellite;
             
         }
         
-        // Calculate the answer and send the response back to the client
+        // Read requests until the server closes the connection
         @Override
         public void run() {
             try{ 
-                // setting up object streams 
-                readFromNet = new ObjectInputStream(jobRequest.getInputStream());
-                writeToNet = new ObjectOutputStream(jobRequest.getOutputStream());
+                // results are small and must not wait for the server's acknowledgement (Nagle)
+                jobRequest.setTcpNoDelay(true);
+
+                // setting up the message channel, in the wire format the server starts with
+                channel = WireProtocol.accept(jobRequest);
+
+                while (true) {
+                    // reading message
+                    message = channel.readMessage();
+
+                    // processing message
+                    switch (message.getType()) {
+                        case JOB_REQUEST:
+                            final JobTask task = new JobTask(message);
+                            if (task.job.isExpired()) {
+                                respond(message.getCorrelationId(), new Message(JOB_FAILED, "Deadline passed before the job started"));
+                                break;
+                            }
+                            tasks.put(message.getCorrelationId(), task);
+                            if (task.job.getDeadline() != 0) {
+                                task.expiry = deadlines.schedule(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        task.cancel(true);
+                                    }
+                                }, task.job.getTimeLeft(), TimeUnit.MILLISECONDS);
+                            }
+                            boolean accepted = jobExecutor.submit(task, task.job.getPriority());
+
+                            if (!accepted) {
+                                task.finished();
+                                // back pressure: tell the server right away, with our load
+                                Message rejection = new Message(JOB_REJECTED, jobExecutor.getLoadReport());
+                                rejection.setCorrelationId(message.getCorrelationId());
+                                channel.writeMessage(rejection);
+                                System.err.println(satelliteName + " queue full, job rejected");
+                            }
+                            break;
+
+                        case JOB_BATCH:
+                            processBatch(message);
+                            break;
+
+                        case STREAM_REQUEST:
+                            final Message streamRequest = message;
+                            Job streamJob = (Job) streamRequest.getContent();
+                            if (!streamSlots.tryAcquire()) {
+                                // as many streams as we run at once already, another satellite may have room
+                                Message rejection = new Message(JOB_REJECTED, jobExecutor.getLoadReport());
+                                rejection.setCorrelationId(streamRequest.getCorrelationId());
+                                channel.writeMessage(rejection);
+                                System.err.println(satelliteName + " streams at their limit, streaming job rejected");
+                                break;
+                            }
+                            final ChunkedResultSink sink = new ChunkedResultSink(channel, streamRequest.getCorrelationId(), streamChunkSize,
+                                    streamJob.getDeadline());
+                            streams.put(streamRequest.getCorrelationId(), sink);
+                            boolean streaming = jobExecutor.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        processStream(streamRequest, sink);
+                                    } finally {
+                                        streamSlots.release();
+                                    }
+                                }
+                            }, streamJob.getPriority());
+
+                            if (!streaming) {
+                                streamSlots.release();
+                                streams.remove(streamRequest.getCorrelationId());
+                                Message rejection = new Message(JOB_REJECTED, jobExecutor.getLoadReport());
+                                rejection.setCorrelationId(streamRequest.getCorrelationId());
+                                channel.writeMessage(rejection);
+                                System.err.println(satelliteName + " queue full, streaming job rejected");
+                            }
+                            break;
+
+                        case STREAM_CREDIT:
+                            ChunkedResultSink stream = streams.get(message.getCorrelationId());
+                            if (stream != null) {
+                                stream.grant((Integer) message.getContent());
+                            }
+                            break;
+
+                        case STEAL_JOBS:
+                            // the server found an idle satellite for jobs still waiting here, of any connection
+                            StealRequest steal = (StealRequest) message.getContent();
+                            int stolen = 0;
+                            for (Runnable queued : jobExecutor.steal(steal.getJobs(), new Predicate<Runnable>() {
+                                @Override
+                                public boolean test(Runnable queued) {
+                                    // batch slices and streams stay, they are answered as a whole
+                                    return queued instanceof JobTask;
+                                }
+                            })) {
+                                if (((JobTask) queued).stolen(steal.getThief())) {
+                                    stolen++;
+                                }
+                            }
+                            if (stolen > 0) {
+                                System.err.println(satelliteName + " gave " + stolen + " jobs to " + steal.getThief());
+                            }
+                            break;
+
+                        case CANCEL_JOB:
+                            JobTask cancelled = tasks.get(message.getCorrelationId());
+                            if (cancelled != null) {
+                                cancelled.cancel(false);
+                            }
+                            ChunkedResultSink cancelledStream = streams.get(message.getCorrelationId());
+                            if (cancelledStream != null) {
+                                cancelledStream.cancel();
+                            }
+                            AtomicBoolean cancelledBatch = batches.get(message.getCorrelationId());
+                            if (cancelledBatch != null) {
+                                // the jobs running finish, those not started are skipped
+                                cancelledBatch.set(true);
+                            }
+                            break;
+
+                        default:
+                            System.err.println(satelliteName  +" WARNING: Message type " + message.getType() + " not implemented");
+                    }
+                }
 
-                // reading message
-               message = (Message) readFromNet.readObject();
+            } catch (EOFException e) {
+                System.out.println(satelliteName + " connection closed by server.");
 
-               // processing message
-                switch (message.getType()) {
-                    case JOB_REQUEST:
-                        // Gets job from contents of message
-                        Job job = (Job) message.getContent();
+            } catch (IOException e) {
+                System.err.println(satelliteName  +" ERROR: Couldn't setup message channel " + e);
 
-                        // Finds tool object
-                        Tool tool = getToolObject( job.getToolName() );
+            } catch (ClassNotFoundException e){
+                System.err.println(satelliteName  +"ERROR: Couldn't not read message " + e);
 
-                        // Calculates result
-                        Object result = tool.go(job.getParameters());
+            } finally {
+                // nobody is left to take the results of the jobs
+                for (ChunkedResultSink stream : streams.values()) {
+                    stream.cancel();
+                }
+                for (JobTask task : tasks.values()) {
+                    task.cancel(false);
+                }
+                for (AtomicBoolean batch : batches.values()) {
+                    batch.set(true);
+                }
+                try {
+                    jobRequest.close();
+                } catch (IOException e) {
+                }
+            }
+        }
 
-                        // sending results back 
-                        writeToNet.writeObject(result);
-                    
-                        System.out.println(satelliteName  + " sent result back to Client.");
-                        break;
+        // Calculate the answer and send the response back to the server
+        private void processJob(JobTask task) {
+            Message request = task.request;
+            Message response;
+            try {
+                // Gets job from contents of message, and calculates result
+                Job job = task.job;
+                if (job.isExpired()) {
+                    // it waited in the queue for too long
+                    throw new JobFailedException("Deadline passed before the job started");
+                }
+                response = new Message(JOB_RESULT, execute(job));
+                // let the server know it may answer the same job with this result again
+                if (getToolObject(job.getToolName()) instanceof DeterministicTool) {
+                    response.setFlags(Message.DETERMINISTIC_RESULT);
+                }
 
-                    default:
-                        System.err.println(satelliteName  +" WARNING: Job and or Tool failed to work properly");
+            } catch (Exception e) {
+                if (!task.isStopped()) {
+                    System.err.println(satelliteName  +" ERROR: " + e);
                 }
+                response = new Message(JOB_FAILED, e instanceof JobFailedException ? e.getMessage() : e.toString());
+            }
 
+            if (task.isCancelled()) {
+                // the server gave up on it, nobody waits for the response
+                return;
+            }
+            if (task.isExpired()) {
+                response = new Message(JOB_FAILED, "Deadline passed");
+            }
+            respond(request.getCorrelationId(), response);
+        }
+
+        // sending results back
+        private void respond(long correlationId, Message response) {
+            response.setCorrelationId(correlationId);
+            try {
+                channel.writeMessage(response);
+                System.out.println(satelliteName  + " sent result back to Server.");
+                reportLoad();
             } catch (IOException e) {
-                System.err.println(satelliteName  +" ERROR: Couldn't setup object stream " + e);
+                System.err.println(satelliteName  +" ERROR: Couldn't send result " + e);
+            }
+        }
 
-            } catch (ClassNotFoundException e){
-                System.err.println(satelliteName  +"ERROR: Couldn't not read object stream " + e);
+        // A job request on its way through the executor. Until it is done it can be stopped: taken out
+        // of the queue if it waits there, interrupted if it runs - tools that run long should check for
+        // interrupts. A job cancelled by the server gets no response, one whose deadline passed fails.
+        private class JobTask implements Runnable {
 
-            } catch (Exception e){
-                System.err.println(satelliteName  +" ERROR: " + e);
+            final Message request;
+            final Job job;
+            volatile ScheduledFuture<?> expiry = null;
+
+            // guarded by this
+            private Thread runner = null;
+            private boolean done = false;
+            private boolean cancelled = false;
+            private boolean expired = false;
+
+            JobTask(Message request) {
+                this.request = request;
+                this.job = (Job) request.getContent();
+            }
 
+            @Override
+            public void run() {
+                synchronized (this) {
+                    if (cancelled || expired) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                try {
+                    processJob(this);
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                        done = true;
+                    }
+                    // an interrupt that came too late must not hit the next job of this worker
+                    Thread.interrupted();
+                    finished();
+                }
+            }
+
+            // the server does not want the job any more, or its deadline passed
+            void cancel(boolean deadlinePassed) {
+                synchronized (this) {
+                    if (done || cancelled || expired) {
+                        return;
+                    }
+                    if (deadlinePassed) {
+                        expired = true;
+                    } else {
+                        cancelled = true;
+                    }
+                    if (runner != null) {
+                        runner.interrupt();
+                        return;
+                    }
+                }
+
+                // still waiting in the queue, it never runs
+                jobExecutor.remove(this);
+                finished();
+                if (deadlinePassed) {
+                    respond(request.getCorrelationId(), new Message(JOB_FAILED, "Deadline passed before the job started"));
+                }
+            }
+
+            // taken out of the queue for an idle satellite, the server sends it there instead;
+            // false if it was cancelled, or its deadline passed, in the meantime
+            boolean stolen(String thief) {
+                synchronized (this) {
+                    if (runner != null || done || cancelled || expired) {
+                        return false;
+                    }
+                    cancelled = true;
+                }
+                finished();
+                respond(request.getCorrelationId(), new Message(JOB_STOLEN, thief));
+                return true;
+            }
+
+            void finished() {
+                tasks.remove(request.getCorrelationId(), this);
+                ScheduledFuture<?> timer = expiry;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+
+            synchronized boolean isCancelled() {
+                return cancelled;
+            }
+
+            synchronized boolean isExpired() {
+                return expired;
+            }
+
+            synchronized boolean isStopped() {
+                return cancelled || expired;
             }
         }
-    }
-    
-    // Gets the appropriate tool. If tool not in cache then load it in.
-    public Tool getToolObject(String toolClassString) throws UnknownToolException, ClassNotFoundException, InstantiationException, IllegalAccessException {
 
-        Tool toolObject = null;
-        
-        // Check if the tool is in the cache, if its not then load it
-        // otherwise let the user know
-        if ((toolObject = (Tool) toolsCache.get(toolClassString)) == null) 
-        {
-            System.out.println("Tools Class: " + toolClassString);
+        // Execute a slice of a batch: it is queued as up to one task per worker, and every task takes the
+        // next job of the slice until none is left. So the jobs run in parallel, and as long as the queue
+        // took one of the tasks, all jobs get done. If it took none, the slice is rejected as a whole.
+        private void processBatch(Message request) throws IOException {
+            @SuppressWarnings("unchecked")
+            final List<Job> jobs = (List<Job>) request.getContent();
+            final long correlationId = request.getCorrelationId();
+            final Object[] results = new Object[jobs.size()];
+            final AtomicInteger nextJob = new AtomicInteger();
+            final AtomicInteger remainingJobs = new AtomicInteger(jobs.size());
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            batches.put(correlationId, cancelled);
+
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while ((i = nextJob.getAndIncrement()) < results.length) {
+                        try {
+                            if (cancelled.get()) {
+                                results[i] = new JobFailedException("Job cancelled");
+                            } else if (jobs.get(i).isExpired()) {
+                                results[i] = new JobFailedException("Deadline passed before the job started");
+                            } else {
+                                results[i] = execute(jobs.get(i));
+                            }
+                        } catch (Exception e) {
+                            System.err.println(satelliteName  +" ERROR: " + e);
+                            results[i] = new JobFailedException(e.toString());
+                        }
+
+                        // whoever finishes the last job sends all results, in the order of the jobs
+                        if (remainingJobs.decrementAndGet() == 0) {
+                            sendBatchResults(correlationId, results);
+                        }
+                    }
+                }
+            };
+
+            // a slice goes with the priority the server scheduled it with, that of its first job
+            int priority = jobs.isEmpty() ? Job.NORMAL_PRIORITY : jobs.get(0).getPriority();
+            int tasks = Math.min(jobExecutor.getWorkerCount(), jobs.size());
+            int accepted = 0;
+            for (int i = 0; i < tasks; i++) {
+                if (jobExecutor.submit(task, priority)) {
+                    accepted++;
+                }
+            }
 
-            if (toolClassString == null) {
-                throw new UnknownToolException();
+            if (jobs.isEmpty()) {
+                sendBatchResults(correlationId, results);
+            } else if (accepted == 0) {
+                batches.remove(correlationId);
+                // back pressure: tell the server right away, with our load
+                Message rejection = new Message(JOB_REJECTED, jobExecutor.getLoadReport());
+                rejection.setCorrelationId(correlationId);
+                channel.writeMessage(rejection);
+                System.err.println(satelliteName + " queue full, batch of " + jobs.size() + " jobs rejected");
             }
-            
-            // load the class and place it into cache
-            Class toolClass = classLoader.loadClass(toolClassString);
-            toolObject = (Tool) toolClass.newInstance();
-            toolsCache.put(toolClassString, toolObject);
+        }
 
-        } else {
-            System.out.println("Tool: " + toolClassString + " already in Cache");
+        // Execute a job and send its results in chunks, as the client takes them. A tool that does not
+        // stream has a single result, which makes up the only chunk. The stream ends with a JOB_RESULT
+        // telling the number of results, or with JOB_FAILED.
+        private void processStream(Message request, ChunkedResultSink sink) {
+            Message response;
+            try {
+                Job job = (Job) request.getContent();
+                Tool tool = getToolObject( job.getToolName() );
+
+                if (tool instanceof StreamingTool) {
+                    ((StreamingTool) tool).stream(job.getParameters(), sink);
+                } else {
+                    sink.emit(execute(job));
+                }
+                response = new Message(JOB_RESULT, sink.finish());
+
+            } catch (Exception e) {
+                System.err.println(satelliteName  +" ERROR: " + e);
+                response = new Message(JOB_FAILED, e.toString());
+            } finally {
+                streams.remove(request.getCorrelationId());
+            }
+            response.setCorrelationId(request.getCorrelationId());
+
+            try {
+                channel.writeMessage(response);
+                System.out.println(satelliteName  + " finished streaming results to Server.");
+                reportLoad();
+            } catch (IOException e) {
+                System.err.println(satelliteName  +" ERROR: Couldn't send result " + e);
+            }
         }
 
-        return toolObject;
+        private void sendBatchResults(long correlationId, Object[] results) {
+            batches.remove(correlationId);
+            Message response = new Message(JOB_RESULT, new ArrayList<Object>(Arrays.asList(results)));
+            response.setCorrelationId(correlationId);
+            try {
+                channel.writeMessage(response);
+                System.out.println(satelliteName  + " sent results of batch back to Server.");
+                reportLoad();
+            } catch (IOException e) {
+                System.err.println(satelliteName  +" ERROR: Couldn't send result " + e);
+            }
+        }
+
+        // send our load to the server, at most every loadReportInterval milliseconds,
+        // but always when the queue just drained so the server does not keep avoiding us
+        private void reportLoad() throws IOException {
+            LoadReport report = jobExecutor.getLoadReport();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                boolean drained = report.getQueueDepth() == 0 && lastReportedDepth != 0;
+                if (!drained && now - lastReportTime < loadReportInterval) {
+                    return;
+                }
+                lastReportTime = now;
+                lastReportedDepth = report.getQueueDepth();
+            }
+            channel.writeMessage(new Message(LOAD_REPORT, report));
+        }
+    }
+    
+    // Execute a job with the tool it names
+    private Object execute(Job job) throws Exception {
+        // Finds tool object
+        Tool tool = getToolObject( job.getToolName() );
+
+        // Calculates result, in the fork-join pool if the tool splits its work
+        if (tool instanceof ParallelTool) {
+            return ((ParallelTool) tool).go(job.getParameters(), jobExecutor.getForkJoinPool());
+        }
+        return tool.go(job.getParameters());
+    }
+
+    // Gets the appropriate tool. If tool not in cache then load it in - only once, even if
+    // several jobs for a new tool arrive at the same time.
+    public Tool getToolObject(String toolClassString) throws UnknownToolException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        return toolsCache.get(toolClassString);
+    }
+
+    public ToolCache getToolCache() {
+        return toolsCache;
     }
 
     // read class loader config and get class loader connectivity properties and create class loader 
@@ -0,0 +1,186 @@
+package appserver.satellite;
+
+import appserver.job.Tool;
+import appserver.job.UnknownToolException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class [ToolCache] Caches tool instances by tool class name. Every tool class is loaded and
+ * instantiated exactly once: callers asking for a tool that is being loaded wait for that load
+ * instead of starting their own. The number of cached tools is bounded; when it is exceeded the
+ * least recently used (LRU) or least frequently used (LFU) tool is evicted.
+ */
+public class ToolCache {
+
+    public static final String LRU = "lru";
+    public static final String LFU = "lfu";
+
+    private final ClassLoader classLoader;
+    private final int capacity;
+    private final boolean leastFrequentlyUsed;
+
+    private final ConcurrentHashMap<String, Entry> tools = new ConcurrentHashMap<String, Entry>();
+    // logical clock for the recency of accesses
+    private final AtomicLong clock = new AtomicLong();
+
+    // statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+
+    public ToolCache(ClassLoader classLoader, int capacity, String evictionPolicy) {
+        this.classLoader = classLoader;
+        this.capacity = Math.max(1, capacity);
+        if (evictionPolicy.equals(LFU)) {
+            leastFrequentlyUsed = true;
+        } else if (evictionPolicy.equals(LRU)) {
+            leastFrequentlyUsed = false;
+        } else {
+            throw new IllegalArgumentException("Unknown eviction policy: " + evictionPolicy);
+        }
+    }
+
+    /**
+     * Returns the tool instance for a tool class, loading and instantiating it if necessary
+     */
+    public Tool get(String toolClassString) throws UnknownToolException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        if (toolClassString == null) {
+            throw new UnknownToolException();
+        }
+
+        Entry entry = tools.get(toolClassString);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = tools.putIfAbsent(toolClassString, newEntry);
+            if (entry == null) {
+                // we are the one to load it
+                misses.increment();
+                newEntry.touch();
+                load(toolClassString, newEntry);
+                evict(newEntry);
+                return await(newEntry);
+            }
+        }
+
+        hits.increment();
+        entry.touch();
+        return await(entry);
+    }
+
+    // load and instantiate the tool class, completing the entry for everybody waiting on it
+    private void load(String toolClassString, Entry entry) {
+        long startTime = System.nanoTime();
+        try {
+            System.out.println("Tools Class: " + toolClassString);
+            Class toolClass = classLoader.loadClass(toolClassString);
+            entry.tool.complete((Tool) toolClass.newInstance());
+        } catch (Throwable error) {
+            // don't cache failures, the next caller tries again
+            tools.remove(toolClassString, entry);
+            entry.tool.completeExceptionally(error);
+        } finally {
+            loadTime.add(System.nanoTime() - startTime);
+        }
+    }
+
+    private Tool await(Entry entry) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        try {
+            return entry.tool.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new InstantiationException("Interrupted while waiting for tool");
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InstantiationException) {
+                throw (InstantiationException) cause;
+            } else if (cause instanceof IllegalAccessException) {
+                throw (IllegalAccessException) cause;
+            } else if (cause instanceof ClassCastException) {
+                throw new InstantiationException("Not a tool: " + cause.getMessage());
+            }
+            throw new InstantiationException(cause.toString());
+        }
+    }
+
+    // evict tools until we are within capacity again; tools still loading are never evicted, and
+    // neither is the one just loaded - under LFU it has fewer uses than any tool that was used before
+    private void evict(Entry loaded) {
+        while (tools.size() > capacity) {
+            String victimName = null;
+            Entry victim = null;
+            for (Map.Entry<String, Entry> candidate : tools.entrySet()) {
+                Entry entry = candidate.getValue();
+                if (!entry.tool.isDone() || entry == loaded) {
+                    continue;
+                }
+                if (victim == null || entry.rank(leastFrequentlyUsed) < victim.rank(leastFrequentlyUsed)) {
+                    victimName = candidate.getKey();
+                    victim = entry;
+                }
+            }
+
+            if (victim == null) {
+                return;
+            }
+            if (tools.remove(victimName, victim)) {
+                evictions.increment();
+                System.out.println("Tool: " + victimName + " evicted from Cache");
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // total time spent loading and instantiating tools, in nanoseconds
+    public long getLoadTime() {
+        return loadTime.sum();
+    }
+
+    public int size() {
+        return tools.size();
+    }
+
+    @Override
+    public String toString() {
+        long misses = getMisses();
+        return "tools " + size() + "/" + capacity + ", hits " + getHits() + ", misses " + misses
+                + ", evictions " + getEvictions()
+                + ", average load time " + (misses == 0 ? 0 : getLoadTime() / misses / 1000000) + " ms";
+    }
+
+    // a cached tool, with what the eviction policies need to know about it
+    private class Entry {
+
+        final CompletableFuture<Tool> tool = new CompletableFuture<Tool>();
+        volatile long lastAccess;
+        final LongAdder uses = new LongAdder();
+
+        void touch() {
+            lastAccess = clock.incrementAndGet();
+            uses.increment();
+        }
+
+        // the entry with the lowest rank is evicted first
+        long rank(boolean leastFrequentlyUsed) {
+            return leastFrequentlyUsed ? uses.sum() : lastAccess;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package appserver.satellite;
+
+/**
+ * Class [ToolCacheCheck] Checks that a tool loaded into a full cache stays cached, under both
+ * eviction policies: two tools are used a few times each to fill a cache of capacity 2, then a
+ * third tool is asked for repeatedly. Only its first request may miss.
+ *
+ * Usage: java appserver.satellite.ToolCacheCheck
+ */
+public class ToolCacheCheck {
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = check(ToolCache.LFU) & check(ToolCache.LRU);
+        System.out.println(passed ? "passed" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    static boolean check(String policy) throws Exception {
+        ToolCache cache = new ToolCache(ToolCacheCheck.class.getClassLoader(), 2, policy);
+        for (int i = 0; i < 3; i++) {
+            cache.get("appserver.job.impl.Fib");
+            cache.get("appserver.job.impl.PrimeCount");
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.get("appserver.job.impl.Sequence");
+        }
+
+        // 6 + 5 requests; Fib, PrimeCount and Sequence miss once each, one of the first two is evicted
+        boolean passed = cache.getHits() == 8 && cache.getMisses() == 3 && cache.getEvictions() == 1;
+        System.out.println(policy + ": " + cache + (passed ? "" : " - expected hits 8, misses 3, evictions 1"));
+        return passed;
+    }
+}
@@ -0,0 +1,41 @@
+package appserver.server;
+
+/**
+ * Class [EwmaLatencyPolicy] Picks the satellite with the lowest expected wait, estimated as its
+ * average job latency times the jobs it has in flight (plus the new one). A satellite that has not
+ * been measured yet is tried first while it has no job in flight, so every satellite gets a latency
+ * estimate; after that it counts as fast as the fastest measured one until its first job is done.
+ */
+public class EwmaLatencyPolicy implements SchedulingPolicy {
+
+    @Override
+    public SatelliteLoad select(SatelliteLoad[] satellites) {
+        double fastest = -1;
+        for (SatelliteLoad candidate : satellites) {
+            double latency = candidate.getAverageLatency();
+            if (latency < 0 && candidate.getOutstandingJobs() == 0) {
+                return candidate;
+            }
+            if (latency >= 0 && (fastest < 0 || latency < fastest)) {
+                fastest = latency;
+            }
+        }
+
+        // a burst, or a hung satellite, must not pile up on an unmeasured one
+        SatelliteLoad best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (SatelliteLoad candidate : satellites) {
+            double latency = candidate.getAverageLatency();
+            if (latency < 0) {
+                latency = fastest < 0 ? 1 : fastest;
+            }
+
+            double cost = latency * (candidate.getOutstandingJobs() + 1);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,330 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.JOB_BATCH;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import appserver.job.Job;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Class [JobDispatcher] Sees jobs through to a satellite that answers. An attempt that fails, or takes
+ * longer than the job timeout, is retried on another satellite after a backoff that doubles with every
+ * attempt - as long as the job is idempotent, i.e. running it twice does no harm.
+ * <p>
+ * With hedging, a single job still unanswered when most jobs (the hedge percentile of the recent
+ * latencies) would have been is sent to a second satellite as well. Whichever answers first wins,
+ * the other attempt is cancelled. That keeps one stalling satellite from showing in the tail latency,
+ * at the price of executing a few jobs twice.
+ * <p>
+ * Cancelling the future of a job cancels all its attempts, on the satellites too. A job whose
+ * deadline passed is not sent anywhere any more.
+ */
+public class JobDispatcher {
+
+    private final Server server;
+
+    // attempts per job in total, milliseconds before the first retry, and until a single job times out (0: never)
+    private final int maxAttempts;
+    private final long backoff;
+    private final long timeout;
+
+    // tools whose jobs may run more than once, null if all of them may
+    private final Set<String> idempotentTools;
+
+    // latency percentile after which single jobs are hedged, 0 if they are not, and the fraction of jobs
+    // that may be hedged at most - when all satellites are busy, hedges would only add to the load
+    private final double hedgePercentile;
+    private final double hedgeBudget;
+    private final LatencyTracker latencies;
+
+    // statistics
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    public JobDispatcher(Server server, Properties properties) {
+        this.server = server;
+        maxAttempts = Math.max(1, Integer.parseInt(properties.getProperty("RETRY_ATTEMPTS", "3").trim()));
+        backoff = Long.parseLong(properties.getProperty("RETRY_BACKOFF", "50").trim());
+        timeout = Long.parseLong(properties.getProperty("JOB_TIMEOUT", "0").trim());
+
+        String tools = properties.getProperty("IDEMPOTENT_TOOLS", "").trim();
+        if (tools.equals("*")) {
+            idempotentTools = null;
+        } else {
+            idempotentTools = new HashSet<String>();
+            for (String tool : tools.split(",")) {
+                if (!tool.trim().isEmpty()) {
+                    idempotentTools.add(tool.trim());
+                }
+            }
+        }
+
+        hedgePercentile = Double.parseDouble(properties.getProperty("HEDGE_PERCENTILE", "0").trim());
+        hedgeBudget = Double.parseDouble(properties.getProperty("HEDGE_BUDGET", "0.1").trim());
+        latencies = new LatencyTracker(1024, hedgePercentile);
+    }
+
+    public boolean isIdempotent(Job job) {
+        return idempotentTools == null || idempotentTools.contains(job.getToolName());
+    }
+
+    /**
+     * Executes a single job on whatever satellite the load manager picks, the response is its result
+     */
+    public CompletableFuture<Message> dispatch(Job job) {
+        dispatched.increment();
+        return new Dispatch(new Message(JOB_REQUEST, job), job, 1, isIdempotent(job)).start(null);
+    }
+
+    /**
+     * Executes a single job on the given satellite, unless it has to be retried or hedged
+     */
+    public CompletableFuture<Message> dispatch(Job job, String satellite) {
+        dispatched.increment();
+        return new Dispatch(new Message(JOB_REQUEST, job), job, 1, isIdempotent(job)).start(satellite);
+    }
+
+    /**
+     * Executes a slice of a batch, on the given satellite unless it has to be retried. Slices are
+     * neither timed out nor hedged, how long they take depends on how many jobs they have
+     */
+    public CompletableFuture<Message> dispatch(ArrayList<Job> jobs, String satellite) {
+        boolean idempotent = true;
+        for (Job job : jobs) {
+            idempotent &= isIdempotent(job);
+        }
+        return new Dispatch(new Message(JOB_BATCH, jobs), null, jobs.size(), idempotent).start(satellite);
+    }
+
+    // the attempts at one request, the first response wins
+    private class Dispatch {
+
+        final Message request;
+        // the job, unless it is a batch
+        final Job job;
+        final int jobs;
+        final boolean idempotent;
+        final CompletableFuture<Message> result = new CompletableFuture<Message>();
+        final long dispatchTime = System.nanoTime();
+
+        // guarded by this
+        int attempts = 0;
+        int running = 0;
+        boolean hedged = false;
+        final List<CompletableFuture<Message>> sent = new ArrayList<CompletableFuture<Message>>(1);
+
+        Dispatch(Message request, Job job, int jobs, boolean idempotent) {
+            this.request = request;
+            this.job = job;
+            this.jobs = jobs;
+            this.idempotent = idempotent;
+        }
+
+        CompletableFuture<Message> start(String satellite) {
+            // once there is a result - or the job was cancelled - the attempts still running are not needed
+            result.whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message response, Throwable error) {
+                    List<CompletableFuture<Message>> attempts;
+                    synchronized (Dispatch.this) {
+                        attempts = new ArrayList<CompletableFuture<Message>>(sent);
+                    }
+                    for (CompletableFuture<Message> attempt : attempts) {
+                        attempt.cancel(false);
+                    }
+                }
+            });
+            send(satellite, null, false);
+            return result;
+        }
+
+        // make an attempt, on the given satellite or on one the load manager picks - preferably not the one to avoid
+        void send(String satellite, String avoid, final boolean hedge) {
+            if (job != null && job.isExpired()) {
+                result.complete(new Message(JOB_FAILED, "Deadline passed"));
+                return;
+            }
+            synchronized (this) {
+                attempts++;
+                running++;
+            }
+
+            final String satelliteName;
+            try {
+                satelliteName = satellite != null ? satellite : Server.loadManager.nextSatellite(avoid);
+            } catch (Exception error) {
+                failed(null, error);
+                return;
+            }
+
+            CompletableFuture<Message> attempt = server.forward(request, jobs, null, satelliteName, 1, System.nanoTime());
+            if (jobs == 1 && timeout > 0) {
+                attempt = attempt.orTimeout(timeout, TimeUnit.MILLISECONDS);
+            }
+            synchronized (this) {
+                sent.add(attempt);
+            }
+            if (result.isDone()) {
+                // cancelled in the meantime
+                attempt.cancel(false);
+            }
+            attempt.whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message response, Throwable error) {
+                    if (error != null) {
+                        failed(satelliteName, error);
+                    } else if (result.complete(response)) {
+                        // the latency the client sees: hedging cuts off the tail just above the
+                        // percentile, it does not drag the percentile down
+                        if (jobs == 1) {
+                            latencies.record(System.nanoTime() - dispatchTime);
+                        }
+                        if (hedge) {
+                            hedgesWon.increment();
+                        }
+                    }
+                }
+            });
+
+            if (!hedge) {
+                hedgeLater(satelliteName);
+            }
+        }
+
+        // send the job to another satellite too, if the first one takes unusually long
+        void hedgeLater(final String satelliteName) {
+            long delay = latencies.getThreshold();
+            if (jobs != 1 || !idempotent || delay < 0 || Server.loadManager.getSatelliteCount() < 2) {
+                return;
+            }
+
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone() || hedges.sum() >= hedgeBudget * dispatched.sum()) {
+                        return;
+                    }
+                    synchronized (Dispatch.this) {
+                        if (result.isDone() || hedged || running == 0 || attempts >= maxAttempts) {
+                            return;
+                        }
+                        hedged = true;
+                    }
+                    hedges.increment();
+                    send(null, satelliteName, true);
+                }
+            });
+        }
+
+        // an attempt failed; try again elsewhere unless another attempt is still running
+        void failed(final String satelliteName, Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                // this attempt lost, or the job was cancelled
+                synchronized (this) {
+                    running--;
+                }
+                return;
+            }
+            if (cause instanceof TimeoutException) {
+                timeouts.increment();
+                cause = new TimeoutException("No response from satellite " + satelliteName + " within " + timeout + " ms");
+            }
+
+            int attempt;
+            synchronized (this) {
+                running--;
+                if (result.isDone() || running > 0) {
+                    return;
+                }
+                attempt = attempts;
+            }
+
+            if (!idempotent || attempt >= maxAttempts) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            retries.increment();
+            long delay = backoff << Math.min(attempt - 1, 20);
+            System.err.println("[JobDispatcher] Attempt " + attempt + (satelliteName == null ? "" : " on " + satelliteName)
+                    + " failed: " + cause + ", retrying in " + delay + " ms");
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(null, satelliteName, false);
+                }
+            });
+        }
+    }
+
+    // the latencies of the most recent single jobs, and the percentile of them after which jobs are hedged.
+    // Recording is lock-free; the percentile is recomputed now and then by whoever records
+    static class LatencyTracker {
+
+        // fewer samples than this say nothing about the tail
+        static final int MIN_SAMPLES = 100;
+        static final int RECOMPUTE_EVERY = 64;
+
+        private final AtomicLongArray samples;
+        private final AtomicInteger recorded = new AtomicInteger();
+        private final double percentile;
+        private volatile long threshold = -1;
+
+        LatencyTracker(int size, double percentile) {
+            this.samples = new AtomicLongArray(size);
+            this.percentile = percentile;
+        }
+
+        void record(long latency) {
+            if (percentile <= 0) {
+                return;
+            }
+            int count = recorded.getAndIncrement();
+            samples.set(Math.floorMod(count, samples.length()), latency);
+            if (count + 1 >= MIN_SAMPLES && (count + 1) % RECOMPUTE_EVERY == 0) {
+                recompute(Math.min(count + 1, samples.length()));
+            }
+        }
+
+        private void recompute(int count) {
+            long[] sorted = new long[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            threshold = sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+
+        // latency in nanoseconds after which a job is hedged, negative if there is none (yet)
+        long getThreshold() {
+            return threshold;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "retries " + retries.sum() + ", timeouts " + timeouts.sum() + ", hedges " + hedges.sum()
+                + " (won " + hedgesWon.sum() + "), hedge threshold "
+                + (latencies.getThreshold() < 0 ? "-" : TimeUnit.NANOSECONDS.toMicros(latencies.getThreshold()) + " us");
+    }
+}
@@ -0,0 +1,230 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import appserver.job.Job;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Class [JobScheduler] Decides which job goes to the satellites next, once every healthy satellite
+ * has as many jobs in flight as it should. Further jobs wait in one lane per priority, and a lane
+ * only gets a turn when the lanes of higher priority are empty.
+ * <p>
+ * Within a lane, the tenants share the turns by their weights (weighted fair queuing): every job gets
+ * a virtual finish time, its cost divided by the weight of its tenant after the tenant's previous job,
+ * and the job that finishes first goes first. So a tenant flooding the server with jobs only delays
+ * its own jobs, while a tenant with few jobs gets them through right away.
+ * <p>
+ * Jobs are only held back here, they are executed by the job dispatcher; a job cancelled while it
+ * waits is never dispatched.
+ */
+public class JobScheduler {
+
+    // jobs in flight on a satellite before it has enough to do, 0 if requests are never held back
+    private final int jobsPerSatellite;
+
+    // share of the tenants, those not listed have the default weight
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+    private final double defaultWeight;
+
+    // guarded by this
+    private final Lane[] lanes = new Lane[Job.LOW_PRIORITY + 1];
+    private int inFlight = 0;
+    private long sequence = 0;
+    private boolean draining = false;
+
+    // statistics
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+
+    public JobScheduler(Properties properties) {
+        jobsPerSatellite = Integer.parseInt(properties.getProperty("SCHEDULER_JOBS_PER_SATELLITE", "16").trim());
+        defaultWeight = Double.parseDouble(properties.getProperty("TENANT_DEFAULT_WEIGHT", "1").trim());
+
+        // tenant:weight, ...
+        for (String tenant : properties.getProperty("TENANT_WEIGHTS", "").split(",")) {
+            int colon = tenant.indexOf(':');
+            if (colon > 0) {
+                weights.put(tenant.substring(0, colon).trim(), Double.parseDouble(tenant.substring(colon + 1).trim()));
+            }
+        }
+
+        for (int priority = 0; priority < lanes.length; priority++) {
+            lanes[priority] = new Lane();
+        }
+    }
+
+    /**
+     * Runs the dispatch of a request when its turn comes, the response is that of the dispatch.
+     * The cost tells how much of the tenant's share the request uses up, e.g. the number of jobs of a batch
+     */
+    public CompletableFuture<Message> schedule(int priority, String tenant, int cost, Supplier<CompletableFuture<Message>> dispatch) {
+        scheduled.increment();
+        if (jobsPerSatellite <= 0) {
+            return dispatch.get();
+        }
+
+        Request request = new Request(dispatch);
+        synchronized (this) {
+            lanes[priority].add(request, tenant, cost);
+        }
+        drain();
+        return request.response;
+    }
+
+    // dispatch waiting requests while there is room for them. Responses that complete right away
+    // (e.g. no satellite is available) come back here, so only one thread drains at a time,
+    // the others leave their requests to it instead of recursing
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            Request next = null;
+            synchronized (this) {
+                // one of our requests at least is always let through: jobs outside the scheduler (streams)
+                // may keep the satellites busy, and nothing would come back here when they are done
+                if (inFlight == 0 || Server.loadManager.hasRoom(jobsPerSatellite)) {
+                    for (Lane lane : lanes) {
+                        next = lane.poll();
+                        if (next != null) {
+                            break;
+                        }
+                    }
+                }
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+                inFlight++;
+            }
+            next.start();
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    // a request waiting for its turn
+    private class Request {
+
+        final Supplier<CompletableFuture<Message>> dispatch;
+        final CompletableFuture<Message> response = new CompletableFuture<Message>();
+        final long queued = System.nanoTime();
+        // virtual times in the lane, and order of arrival for requests finishing at the same time
+        double start;
+        double finish;
+        long sequence;
+
+        Request(Supplier<CompletableFuture<Message>> dispatch) {
+            this.dispatch = dispatch;
+        }
+
+        void start() {
+            long wait = System.nanoTime() - queued;
+            if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                waited.increment();
+                waitTime.add(wait);
+            }
+
+            final CompletableFuture<Message> dispatched;
+            try {
+                dispatched = dispatch.get();
+            } catch (RuntimeException error) {
+                response.completeExceptionally(error);
+                finished();
+                return;
+            }
+            dispatched.whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message result, Throwable error) {
+                    if (error != null) {
+                        response.completeExceptionally(error);
+                    } else {
+                        response.complete(result);
+                    }
+                    finished();
+                }
+            });
+            // whoever gives up on the response gives up on the dispatch
+            response.whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message result, Throwable error) {
+                    if (!dispatched.isDone()) {
+                        dispatched.cancel(false);
+                    }
+                }
+            });
+        }
+    }
+
+    // the waiting requests of one priority, the one with the earliest virtual finish time first
+    private class Lane {
+
+        final PriorityQueue<Request> requests = new PriorityQueue<Request>(11, new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b) {
+                if (a.finish != b.finish) {
+                    return a.finish < b.finish ? -1 : 1;
+                }
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+        // finish time of the last request of every tenant with requests in the lane
+        final Map<String, Double> lastFinish = new HashMap<String, Double>();
+        // start time of the request dispatched last
+        double virtualTime = 0;
+
+        void add(Request request, String tenant, int cost) {
+            Double last = lastFinish.get(tenant);
+            Double weight = weights.get(tenant);
+            request.start = last == null ? virtualTime : Math.max(virtualTime, last);
+            request.finish = request.start + Math.max(1, cost) / (weight == null ? defaultWeight : weight);
+            request.sequence = sequence++;
+            lastFinish.put(tenant, request.finish);
+            requests.add(request);
+        }
+
+        // the next request to dispatch, null if none is waiting; cancelled ones are dropped
+        Request poll() {
+            Request request;
+            while ((request = requests.poll()) != null && request.response.isDone()) {
+                ;
+            }
+            if (request == null) {
+                // idle, the tenants start over
+                lastFinish.clear();
+                virtualTime = 0;
+                return null;
+            }
+            virtualTime = request.start;
+            return request;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long waits = waited.sum();
+        return "scheduled " + scheduled.sum() + ", waited " + waits
+                + (waits == 0 ? "" : " (" + TimeUnit.NANOSECONDS.toMillis(waitTime.sum() / waits) + " ms on average)")
+                + ", waiting " + lanes[Job.HIGH_PRIORITY].requests.size() + "/" + lanes[Job.NORMAL_PRIORITY].requests.size()
+                + "/" + lanes[Job.LOW_PRIORITY].requests.size() + " high/normal/low, in flight " + inFlight;
+    }
+}
@@ -0,0 +1,21 @@
+package appserver.server;
+
+/**
+ * Class [JobStolenException] Exception that is raised when a satellite gave a job that was still
+ * waiting in its queue to an idle satellite. The job was not executed and goes to that satellite.
+ */
+public class JobStolenException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String thief;
+
+    public JobStolenException(String satelliteName, String thief) {
+        super("Job of satellite " + satelliteName + " stolen by " + thief);
+        this.thief = thief;
+    }
+
+    public String getThief() {
+        return thief;
+    }
+}
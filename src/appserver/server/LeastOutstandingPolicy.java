@@ -0,0 +1,27 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class [LeastOutstandingPolicy] Picks the satellite with the fewest jobs in flight.
+ * The search starts at a rotating position, so ties do not always go to the same satellite.
+ */
+public class LeastOutstandingPolicy implements SchedulingPolicy {
+
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteLoad select(SatelliteLoad[] satellites) {
+        int size = satellites.length;
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        SatelliteLoad best = null;
+        for (int i = 0; i < size; i++) {
+            SatelliteLoad candidate = satellites[(offset + i) % size];
+            if (best == null || candidate.getOutstandingJobs() < best.getOutstandingJobs()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+}
@@ -5,7 +5,12 @@
  */
 package appserver.server;
 
-import java.util.ArrayList;
+import appserver.comm.LoadReport;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -13,40 +18,250 @@ import java.util.ArrayList;
  */
 public class LoadManager {
 
-    static ArrayList satellites = null;
-    static int lastSatelliteIndex = -1;
+    // immutable snapshot of the satellites in rotation, replaced as a whole when a satellite is added
+    // or removed (copy-on-write), so selecting a satellite never takes a lock
+    static AtomicReference<SatelliteLoad[]> satellites = null;
+    // all satellites ever added by name, for the job accounting
+    static ConcurrentHashMap<String, SatelliteLoad> satellitesByName = null;
+    static volatile SchedulingPolicy policy = new RoundRobinPolicy();
+    static double latencyAlpha = 0.3;
 
     public LoadManager() {
-        satellites = new ArrayList<String>();
+        satellites = new AtomicReference<SatelliteLoad[]>(new SatelliteLoad[0]);
+        satellitesByName = new ConcurrentHashMap<String, SatelliteLoad>();
     }
 
+    // select the scheduling policy by its name in the server properties
+    public void setPolicy(String policyName) {
+        if (policyName.equals("round-robin")) {
+            policy = new RoundRobinPolicy();
+        } else if (policyName.equals("least-outstanding")) {
+            policy = new LeastOutstandingPolicy();
+        } else if (policyName.equals("power-of-two")) {
+            policy = new PowerOfTwoChoicesPolicy();
+        } else if (policyName.equals("ewma-latency")) {
+            policy = new EwmaLatencyPolicy();
+        } else {
+            throw new IllegalArgumentException("Unknown load policy: " + policyName);
+        }
+    }
+
+    // weight of the most recent measurement in the latency averages
+    public void setLatencyAlpha(double alpha) {
+        latencyAlpha = alpha;
+    }
+
+    // put a satellite into the rotation, a satellite coming back keeps its statistics
     public void satelliteAdded(String satelliteName) {
-        // add satellite
-        // ...
+        satellitesByName.putIfAbsent(satelliteName, new SatelliteLoad(satelliteName, latencyAlpha));
+        SatelliteLoad load = satellitesByName.get(satelliteName);
+
+        SatelliteLoad[] oldSnapshot;
+        SatelliteLoad[] newSnapshot;
+        do {
+            oldSnapshot = satellites.get();
+            if (indexOf(oldSnapshot, load) >= 0) {
+                return;
+            }
+            newSnapshot = new SatelliteLoad[oldSnapshot.length + 1];
+            System.arraycopy(oldSnapshot, 0, newSnapshot, 0, oldSnapshot.length);
+            newSnapshot[oldSnapshot.length] = load;
+        } while (!satellites.compareAndSet(oldSnapshot, newSnapshot));
     }
 
-    /*
+    // take a satellite out of the rotation, jobs still in flight there are accounted for as usual
     public void satelliteRemoved(String satelliteName) {
-        satellites.remove(satelliteName);
+        SatelliteLoad load = satellitesByName.get(satelliteName);
+        if (load == null) {
+            return;
+        }
+
+        SatelliteLoad[] oldSnapshot;
+        SatelliteLoad[] newSnapshot;
+        do {
+            oldSnapshot = satellites.get();
+            int index = indexOf(oldSnapshot, load);
+            if (index < 0) {
+                return;
+            }
+            newSnapshot = new SatelliteLoad[oldSnapshot.length - 1];
+            System.arraycopy(oldSnapshot, 0, newSnapshot, 0, index);
+            System.arraycopy(oldSnapshot, index + 1, newSnapshot, index, newSnapshot.length - index);
+        } while (!satellites.compareAndSet(oldSnapshot, newSnapshot));
+    }
+
+    private static int indexOf(SatelliteLoad[] snapshot, SatelliteLoad load) {
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == load) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // a slice of a batch, sent to a satellite in one message
+    public void satelliteJobsStarted(String satelliteName, int jobs) {
+        SatelliteLoad load = satellitesByName.get(satelliteName);
+        if (load != null) {
+            load.jobsStarted(jobs);
+        }
+    }
+
+    // the latency in nanoseconds if the satellite answered the jobs, negative if it did not
+    public void satelliteJobsStopped(String satelliteName, int jobs, long latency) {
+        SatelliteLoad load = satellitesByName.get(satelliteName);
+        if (load != null) {
+            load.jobsStopped(jobs, latency);
+        }
+    }
+
+    public void satelliteLoadReported(String satelliteName, LoadReport report) {
+        SatelliteLoad load = satellitesByName.get(satelliteName);
+        if (load != null) {
+            load.loadReported(report);
+        }
     }
 
-     public void satelliteJobStarted(String satelliteName, String toolName) {
-        
-     }
-    
-     public void satelliteJobStopped(String satelliteName, String toolName) {
-        
-     }
-     */
     public String nextSatellite() throws Exception {
+        return nextSatellite(null);
+    }
+
+    // pick a satellite other than the one to avoid, unless there is no other
+    public String nextSatellite(String avoid) throws Exception {
         
-        int numberSatellites;
-        
-        synchronized (satellites) {
-            // implement policy that returns the satellite name according to a round robin methodology
-            // ...
+        SatelliteLoad[] snapshot = satellites.get();
+        if (snapshot.length == 0) {
+            throw new Exception("No healthy satellites available");
+        }
+
+        // let the configured policy pick the satellite, out of the ones that have room
+        snapshot = withoutSaturated(snapshot);
+        if (avoid != null && snapshot.length > 1) {
+            snapshot = without(snapshot, avoid);
         }
+        return policy.select(snapshot).getName();
+    }
+
+    // split a batch of jobs across the satellites that have room, in proportion to their free slots
+    // (workers and queue as last reported, minus the jobs outstanding there). A slice has at least
+    // minSlice jobs, so small batches are not spread thinner than worth a message. Returns the
+    // satellites and the number of jobs for each, in the order the jobs are assigned
+    public LinkedHashMap<String, Integer> planBatch(int jobCount, int minSlice) throws Exception {
+        SatelliteLoad[] snapshot = withoutSaturated(satellites.get());
+        if (snapshot.length == 0) {
+            throw new Exception("No healthy satellites available");
+        }
+
+        // satellites with the most room first
+        final long[] room = new long[snapshot.length];
+        Integer[] order = new Integer[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            LoadReport report = snapshot[i].getLastReport();
+            // nothing reported yet: as much room as a job needs
+            long slots = report == null ? 1 : report.getWorkers() + report.getQueueCapacity();
+            room[i] = Math.max(1, slots - snapshot[i].getOutstandingJobs());
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(room[b], room[a]);
+            }
+        });
+
+        int slices = Math.max(1, Math.min(snapshot.length, jobCount / Math.max(1, minSlice)));
+        long totalRoom = 0;
+        for (int i = 0; i < slices; i++) {
+            totalRoom += room[order[i]];
+        }
+
+        LinkedHashMap<String, Integer> plan = new LinkedHashMap<String, Integer>();
+        int assigned = 0;
+        for (int i = 0; i < slices; i++) {
+            // the last slice takes what rounding left over
+            int share = i == slices - 1 ? jobCount - assigned : (int) (jobCount * room[order[i]] / totalRoom);
+            share = Math.min(jobCount - assigned, Math.max(share, Math.min(minSlice, jobCount - assigned)));
+            if (share > 0) {
+                plan.put(snapshot[order[i]].getName(), share);
+                assigned += share;
+            }
+        }
+        return plan;
+    }
+
+    // the satellites that did not report a full queue; all of them if every one did
+    private static SatelliteLoad[] withoutSaturated(SatelliteLoad[] snapshot) {
+        int available = 0;
+        for (SatelliteLoad load : snapshot) {
+            if (!load.isSaturated()) {
+                available++;
+            }
+        }
+        if (available == snapshot.length || available == 0) {
+            return snapshot;
+        }
+
+        SatelliteLoad[] filtered = new SatelliteLoad[available];
+        int i = 0;
+        for (SatelliteLoad load : snapshot) {
+            if (!load.isSaturated() && i < available) {
+                filtered[i++] = load;
+            }
+        }
+        // a report may have arrived in between, don't hand out an incomplete array
+        return i == available ? filtered : snapshot;
+    }
+
+    // the satellites except the named one
+    private static SatelliteLoad[] without(SatelliteLoad[] snapshot, String satelliteName) {
+        int index = -1;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i].getName().equals(satelliteName)) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return snapshot;
+        }
+        SatelliteLoad[] filtered = new SatelliteLoad[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, filtered, 0, index);
+        System.arraycopy(snapshot, index + 1, filtered, index, filtered.length - index);
+        return filtered;
+    }
+
+    // the satellite in rotation, other than the idle one, with the most jobs waiting,
+    // if they are at least that many; null if there is none, or the idle one is not in rotation
+    public SatelliteLoad busiestSatellite(String idleSatellite, int minWaitingJobs) {
+        SatelliteLoad busiest = null;
+        boolean idleInRotation = false;
+        for (SatelliteLoad load : satellites.get()) {
+            if (load.getName().equals(idleSatellite)) {
+                idleInRotation = true;
+                continue;
+            }
+            if (load.getWaitingJobs() >= minWaitingJobs
+                    && (busiest == null || load.getWaitingJobs() > busiest.getWaitingJobs())) {
+                busiest = load;
+            }
+        }
+        return idleInRotation ? busiest : null;
+    }
+
+    // whether a satellite in rotation has fewer jobs in flight than that, or there is none at all
+    public boolean hasRoom(int jobsPerSatellite) {
+        SatelliteLoad[] snapshot = satellites.get();
+        if (snapshot.length == 0) {
+            return true;
+        }
+        for (SatelliteLoad load : snapshot) {
+            if (load.getOutstandingJobs() < jobsPerSatellite) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        return (String) satellites.get(lastSatelliteIndex);
+    public int getSatelliteCount() {
+        return satellites.get().length;
     }
 }
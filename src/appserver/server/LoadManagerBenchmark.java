@@ -0,0 +1,177 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class [LoadManagerBenchmark] Contention benchmark for the dispatch hot path: many threads
+ * select a satellite, look up its connectivity info and account a job start and stop.
+ * Runs the path once lock-free, as the server does it, and once the way dispatch used to be
+ * done (<code>LockedDispatch</code>, a copy of the old load and satellite manager path).
+ *
+ * Usage: java appserver.server.LoadManagerBenchmark [threads] [iterations per thread]
+ */
+public class LoadManagerBenchmark {
+
+    static final String[] SATELLITE_NAMES = {"Earth", "Venus", "Mercury"};
+
+    static SatelliteManager satelliteManager;
+    static LoadManager loadManager;
+    static LockedDispatch lockedDispatch;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        // the server's managers, registering a satellite puts it into the load manager's rotation
+        satelliteManager = Server.satelliteManager;
+        loadManager = Server.loadManager;
+        loadManager.setPolicy("round-robin");
+        lockedDispatch = new LockedDispatch(0.3);
+        for (int i = 0; i < SATELLITE_NAMES.length; i++) {
+            ConnectivityInfo satelliteInfo = new ConnectivityInfo();
+            satelliteInfo.setName(SATELLITE_NAMES[i]);
+            satelliteInfo.setHost("127.0.0.1");
+            satelliteInfo.setPort(25176 + i);
+            satelliteManager.registerSatellite(satelliteInfo);
+            lockedDispatch.registerSatellite(satelliteInfo);
+        }
+
+        System.out.println("Threads: " + threads + ", iterations per thread: " + iterations);
+
+        // warm up both variants, then measure
+        run(threads, iterations / 10, false);
+        run(threads, iterations / 10, true);
+
+        report("lock-free", run(threads, iterations, false), threads, iterations);
+        report("locked   ", run(threads, iterations, true), threads, iterations);
+    }
+
+    // runs the dispatch path on all threads at once, returns the elapsed nanoseconds
+    static long run(int threads, final int iterations, final boolean locked) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < iterations; i++) {
+                            if (locked) {
+                                lockedDispatch.dispatchOnce();
+                            } else {
+                                dispatchOnce();
+                            }
+                        }
+                    } catch (Exception error) {
+                        error.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - startTime;
+    }
+
+    static void dispatchOnce() throws Exception {
+        String satelliteName = loadManager.nextSatellite();
+        ConnectivityInfo satelliteInfo = satelliteManager.getSatelliteForName(satelliteName);
+        loadManager.satelliteJobsStarted(satelliteInfo.getName(), 1);
+        loadManager.satelliteJobsStopped(satelliteInfo.getName(), 1, 1000);
+    }
+
+    static void report(String variant, long elapsed, int threads, int iterations) {
+        double operations = (double) threads * iterations;
+        System.out.printf("%s: %8.1f ms, %12.0f dispatches/s%n", variant, elapsed / 1e6, operations / (elapsed / 1e9));
+    }
+
+    /**
+     * Class [LockedDispatch] The dispatch path as it was before it went lock-free: the satellites'
+     * loads in a list behind its monitor, found by name with a linear search, their connectivity info
+     * in a Hashtable, a synchronized round-robin cursor and latency average, and the selection and
+     * lookup together under the load manager's monitor, as ServerThread took it.
+     */
+    static class LockedDispatch {
+
+        final ArrayList<Load> satellites = new ArrayList<Load>();
+        final Hashtable<String, ConnectivityInfo> satelliteInfos = new Hashtable<String, ConnectivityInfo>();
+        final double alpha;
+        int lastSatelliteIndex = -1;
+
+        LockedDispatch(double alpha) {
+            this.alpha = alpha;
+        }
+
+        void registerSatellite(ConnectivityInfo satelliteInfo) {
+            satelliteInfos.put(satelliteInfo.getName(), satelliteInfo);
+            synchronized (satellites) {
+                satellites.add(new Load(satelliteInfo.getName()));
+            }
+        }
+
+        void dispatchOnce() throws Exception {
+            ConnectivityInfo satelliteInfo;
+            synchronized (this) {
+                String satelliteName = nextSatellite();
+                satelliteInfo = satelliteInfos.get(satelliteName);
+            }
+            getLoad(satelliteInfo.getName()).jobStarted();
+            getLoad(satelliteInfo.getName()).jobStopped(1000);
+        }
+
+        String nextSatellite() throws Exception {
+            synchronized (satellites) {
+                if (satellites.isEmpty()) {
+                    throw new Exception("No satellites registered");
+                }
+                return select().name;
+            }
+        }
+
+        synchronized Load select() {
+            lastSatelliteIndex = (lastSatelliteIndex + 1) % satellites.size();
+            return satellites.get(lastSatelliteIndex);
+        }
+
+        Load getLoad(String satelliteName) {
+            synchronized (satellites) {
+                for (Load load : satellites) {
+                    if (load.name.equals(satelliteName)) {
+                        return load;
+                    }
+                }
+            }
+            return null;
+        }
+
+        class Load {
+
+            final String name;
+            final AtomicInteger outstandingJobs = new AtomicInteger();
+            double averageLatency = -1;
+
+            Load(String name) {
+                this.name = name;
+            }
+
+            void jobStarted() {
+                outstandingJobs.incrementAndGet();
+            }
+
+            synchronized void jobStopped(long latency) {
+                outstandingJobs.decrementAndGet();
+                averageLatency = averageLatency < 0 ? latency : alpha * latency + (1 - alpha) * averageLatency;
+            }
+        }
+    }
+}
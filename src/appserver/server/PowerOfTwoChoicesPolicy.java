@@ -0,0 +1,28 @@
+package appserver.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class [PowerOfTwoChoicesPolicy] Samples two satellites at random and picks the one with
+ * fewer jobs in flight. Nearly as good as looking at all of them, without herding every
+ * dispatcher onto the same least loaded satellite.
+ */
+public class PowerOfTwoChoicesPolicy implements SchedulingPolicy {
+
+    @Override
+    public SatelliteLoad select(SatelliteLoad[] satellites) {
+        int size = satellites.length;
+        if (size == 1) {
+            return satellites[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // second pick out of the others, so the two choices are always distinct
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        SatelliteLoad a = satellites[first];
+        SatelliteLoad b = satellites[second];
+        return b.getOutstandingJobs() < a.getOutstandingJobs() ? b : a;
+    }
+}
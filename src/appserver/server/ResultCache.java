@@ -0,0 +1,283 @@
+package appserver.server;
+
+import appserver.comm.DefaultPayloadCodec;
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import appserver.job.Job;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Class [ResultCache] Results of jobs for deterministic tools, so that a repeated job is answered
+ * without a satellite. A job is identified by its tool and a hash of its parameters in their canonical
+ * (payload codec) encoding. Identical jobs arriving while the first one is still being computed wait
+ * for that one computation. Only its result is shared: if it fails, which may be for reasons of its own
+ * request (a deadline, a cancel), the waiting jobs are executed again. Results are kept for a limited
+ * time, and only as many as configured; the oldest go first. Failed jobs are not kept.
+ * <p>
+ * Tools are deterministic if they are configured so, or once a satellite flagged one of their results
+ * as deterministic (the tool implements DeterministicTool).
+ */
+public class ResultCache {
+
+    // a job, by tool name and hash of its parameters
+    static final class Key {
+
+        final String toolName;
+        final byte[] hash;
+        final int hashCode;
+
+        Key(String toolName, byte[] hash) {
+            this.toolName = toolName;
+            this.hash = hash;
+            this.hashCode = 31 * toolName.hashCode() + Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return toolName.equals(key.toolName) && Arrays.equals(hash, key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    // a result, possibly still being computed; completes with null if the computation failed
+    static final class Entry {
+
+        final Key key;
+        final CompletableFuture<Message> result = new CompletableFuture<Message>();
+        volatile long expiresAt = Long.MAX_VALUE;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    private static final DefaultPayloadCodec codec = new DefaultPayloadCodec();
+
+    private final int capacity;
+    private final long timeToLive;
+
+    private final ConcurrentHashMap<Key, Entry> results = new ConcurrentHashMap<Key, Entry>();
+    // entries in the order they were made, for eviction; may hold entries that are gone already
+    private final ConcurrentLinkedQueue<Entry> age = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger ageLength = new AtomicInteger();
+    private final Set<String> deterministicTools = ConcurrentHashMap.newKeySet();
+
+    // statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResultCache(int capacity, long timeToLiveMillis, Collection<String> deterministicTools) {
+        this.capacity = capacity;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.deterministicTools.addAll(deterministicTools);
+    }
+
+    public boolean isDeterministic(String toolName) {
+        return deterministicTools.contains(toolName);
+    }
+
+    /**
+     * Returns the result of a job of a deterministic tool: from the cache, from the identical job in
+     * flight, or by executing it
+     */
+    public CompletableFuture<Message> get(Job job, Function<Job, CompletableFuture<Message>> execute) {
+        return get(job, execute, true);
+    }
+
+    // a job executed again because the one it waited for failed is not counted a second time
+    private CompletableFuture<Message> get(final Job job, final Function<Job, CompletableFuture<Message>> execute, boolean count) {
+        Key key = keyOf(job);
+        if (key == null) {
+            // parameters we cannot encode, nothing to compare them by
+            return execute.apply(job);
+        }
+
+        Entry entry = results.get(key);
+        if (entry != null && entry.expiresAt < System.nanoTime()) {
+            results.remove(key, entry);
+            entry = null;
+        }
+        if (entry != null) {
+            if (count) {
+                (entry.result.isDone() ? hits : coalesced).increment();
+            }
+            return follow(entry, job, execute);
+        }
+
+        final Entry fresh = new Entry(key);
+        entry = results.putIfAbsent(key, fresh);
+        if (entry != null) {
+            if (count) {
+                (entry.result.isDone() ? hits : coalesced).increment();
+            }
+            return follow(entry, job, execute);
+        }
+        if (count) {
+            misses.increment();
+        }
+        added(fresh);
+
+        CompletableFuture<Message> response = execute.apply(job);
+        response.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message response, Throwable error) {
+                if (error != null || response.getType() != JOB_RESULT) {
+                    // failures are neither remembered nor shared, the jobs waiting and the next
+                    // identical job try again
+                    results.remove(fresh.key, fresh);
+                    fresh.result.complete(null);
+                } else {
+                    fresh.expiresAt = System.nanoTime() + timeToLive;
+                    fresh.result.complete(response);
+                }
+            }
+        });
+        // the caller gets a copy, so cancelling it does not cancel the computation the others wait for
+        return response.copy();
+    }
+
+    // the result of an entry for an identical job; if the entry's computation failed, the job is
+    // executed again, through the cache, so the jobs still waiting share that execution
+    private CompletableFuture<Message> follow(Entry entry, final Job job, final Function<Job, CompletableFuture<Message>> execute) {
+        final CompletableFuture<Message> response = new CompletableFuture<Message>();
+        entry.result.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message result, Throwable error) {
+                if (response.isDone()) {
+                    // cancelled while waiting
+                    return;
+                }
+                if (result != null) {
+                    response.complete(result);
+                    return;
+                }
+
+                final CompletableFuture<Message> retry = get(job, execute, false);
+                retry.whenComplete(new BiConsumer<Message, Throwable>() {
+                    @Override
+                    public void accept(Message result, Throwable error) {
+                        if (error != null) {
+                            response.completeExceptionally(error);
+                        } else {
+                            response.complete(result);
+                        }
+                    }
+                });
+                response.whenComplete(new BiConsumer<Message, Throwable>() {
+                    @Override
+                    public void accept(Message result, Throwable error) {
+                        if (response.isCancelled()) {
+                            retry.cancel(true);
+                        }
+                    }
+                });
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Takes note of the result of a job that was executed without the cache. If the satellite
+     * flagged it as deterministic, its tool is from now on, and the result is kept.
+     */
+    public void resultArrived(Job job, Message response) {
+        if (response.getType() != JOB_RESULT || !response.hasFlag(Message.DETERMINISTIC_RESULT)) {
+            return;
+        }
+        if (deterministicTools.add(job.getToolName())) {
+            System.out.println("[ResultCache] Tool " + job.getToolName() + " is deterministic, caching its results");
+        }
+
+        Key key = keyOf(job);
+        if (key == null) {
+            return;
+        }
+        Entry entry = new Entry(key);
+        entry.result.complete(response);
+        entry.expiresAt = System.nanoTime() + timeToLive;
+        if (results.putIfAbsent(key, entry) == null) {
+            added(entry);
+        }
+    }
+
+    // note the age of a new entry, and drop the oldest ones if there are too many
+    private void added(Entry entry) {
+        age.add(entry);
+        ageLength.incrementAndGet();
+
+        while (results.size() > capacity || ageLength.get() > 2 * capacity) {
+            Entry oldest = age.poll();
+            if (oldest == null) {
+                break;
+            }
+            ageLength.decrementAndGet();
+            if (results.remove(oldest.key, oldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static Key keyOf(Job job) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            codec.encode(job.getParameters(), new DataOutputStream(bytes));
+            return new Key(job.getToolName(), MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long answered = getHits() + getCoalesced();
+        long requests = answered + getMisses();
+        return requests == 0 ? 0 : (double) answered / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "results " + results.size() + "/" + capacity + ", hits " + getHits() + ", coalesced " + getCoalesced()
+                + ", misses " + getMisses() + String.format(", hit ratio %.3f", getHitRatio())
+                + ", evictions " + getEvictions() + ", deterministic tools " + deterministicTools;
+    }
+}
@@ -0,0 +1,16 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class [RoundRobinPolicy] Hands out the satellites in turn, regardless of their load
+ */
+public class RoundRobinPolicy implements SchedulingPolicy {
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    @Override
+    public SatelliteLoad select(SatelliteLoad[] satellites) {
+        return satellites[Math.floorMod(cursor.getAndIncrement(), satellites.length)];
+    }
+}
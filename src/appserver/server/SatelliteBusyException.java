@@ -0,0 +1,14 @@
+package appserver.server;
+
+/**
+ * Class [SatelliteBusyException] Exception that is raised when a satellite rejected a job because
+ * its queue was full. The job was not executed and can be sent to another satellite.
+ */
+public class SatelliteBusyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public SatelliteBusyException(String satelliteName) {
+        super("Satellite " + satelliteName + " is saturated");
+    }
+}
@@ -0,0 +1,225 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.LoadReport;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REJECTED;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.JOB_STOLEN;
+import static appserver.comm.MessageTypes.LOAD_REPORT;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import appserver.comm.WireProtocol;
+import appserver.job.JobFailedException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Class [SatelliteConnection] A long-lived connection to a satellite that carries many
+ * request/response pairs. Requests are tagged with a correlation id, so any number of them
+ * can be in flight at the same time; a reader thread matches the responses to their requests.
+ */
+public class SatelliteConnection {
+
+    private static final AtomicLong nextCorrelationId = new AtomicLong();
+
+    private final ConnectivityInfo satelliteInfo;
+    private final Socket socket;
+    private final MessageChannel channel;
+
+    // requests sent, but not answered yet
+    private final Map<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<Long, CompletableFuture<Message>>();
+    // streaming requests among them, and where their chunks go
+    private final Map<Long, StreamRelay> streams = new ConcurrentHashMap<Long, StreamRelay>();
+    private volatile boolean open = true;
+
+    public SatelliteConnection(ConnectivityInfo satelliteInfo) throws IOException {
+        this.satelliteInfo = satelliteInfo;
+
+        socket = new Socket(satelliteInfo.getHost(), satelliteInfo.getPort());
+        socket.setTcpNoDelay(true);
+
+        // object streams or binary frames, as configured for the server
+        channel = WireProtocol.connect(socket);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readResponses();
+            }
+        }, "SatelliteConnection-" + satelliteInfo.getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a job request to the satellite, the returned future completes with the JOB_RESULT message
+     */
+    public CompletableFuture<Message> send(Message message) {
+        return send(message, null);
+    }
+
+    /**
+     * Sends a request, and relays the result chunks the satellite streams back, if any. The returned
+     * future completes with the final result; cancelling it cancels the request on the satellite.
+     */
+    public CompletableFuture<Message> send(Message message, StreamRelay relay) {
+        final long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<Message> result = new CompletableFuture<Message>();
+        pending.put(correlationId, result);
+        if (relay != null) {
+            streams.put(correlationId, relay);
+        }
+
+        Message request = new Message(message.getType(), message.getContent());
+        request.setCorrelationId(correlationId);
+
+        try {
+            channel.writeMessage(request);
+            if (relay != null) {
+                // credits must follow the request, so the satellite knows the stream
+                relay.attach(this, correlationId);
+            }
+        } catch (IOException error) {
+            pending.remove(correlationId);
+            streams.remove(correlationId);
+            result.completeExceptionally(error);
+            failed(error);
+            return result;
+        }
+
+        // cancelling the future stops the job on the satellite; only now that the request is out,
+        // so the satellite never gets the cancel before the job
+        result.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message response, Throwable error) {
+                if (error instanceof CancellationException && pending.remove(correlationId) != null) {
+                    streams.remove(correlationId);
+                    Message cancel = new Message(CANCEL_JOB, null);
+                    cancel.setCorrelationId(correlationId);
+                    try {
+                        channel.writeMessage(cancel);
+                    } catch (IOException writeError) {
+                        failed(writeError);
+                    }
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Sends a message the satellite does not answer
+     */
+    public void sendOneWay(Message message) {
+        try {
+            channel.writeMessage(message);
+        } catch (IOException error) {
+            failed(error);
+        }
+    }
+
+    /**
+     * Lets the satellite send that many more chunks of a streaming job, a negative number cancels it
+     */
+    public void grant(long correlationId, int chunks) {
+        Message credit = new Message(STREAM_CREDIT, chunks);
+        credit.setCorrelationId(correlationId);
+        try {
+            channel.writeMessage(credit);
+        } catch (IOException error) {
+            failed(error);
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void close() {
+        close(new IOException("Connection to satellite " + satelliteInfo.getName() + " closed"));
+    }
+
+    // reader loop, runs until the connection breaks
+    private void readResponses() {
+        try {
+            while (open) {
+                Message response = channel.readMessage();
+
+                // load reports are not responses to a request, and rejections come with one
+                if (response.getType() == LOAD_REPORT || response.getType() == JOB_REJECTED) {
+                    Server.loadManager.satelliteLoadReported(satelliteInfo.getName(), (LoadReport) response.getContent());
+                    if (response.getType() == LOAD_REPORT) {
+                        continue;
+                    }
+                }
+
+                // chunks of a streamed result go straight on to the client
+                if (response.getType() == RESULT_CHUNK) {
+                    StreamRelay relay = streams.get(response.getCorrelationId());
+                    if (relay != null) {
+                        relay.chunk(response.getContent());
+                    }
+                    continue;
+                }
+                streams.remove(response.getCorrelationId());
+
+                CompletableFuture<Message> result = pending.remove(response.getCorrelationId());
+                if (result == null) {
+                    System.err.println("[SatelliteConnection] Response for unknown request " + response.getCorrelationId());
+                    continue;
+                }
+
+                if (response.getType() == JOB_RESULT) {
+                    result.complete(response);
+                } else if (response.getType() == JOB_FAILED) {
+                    result.completeExceptionally(new JobFailedException((String) response.getContent()));
+                } else if (response.getType() == JOB_REJECTED) {
+                    result.completeExceptionally(new SatelliteBusyException(satelliteInfo.getName()));
+                } else if (response.getType() == JOB_STOLEN) {
+                    result.completeExceptionally(new JobStolenException(satelliteInfo.getName(), (String) response.getContent()));
+                } else {
+                    result.completeExceptionally(new IOException("Unexpected message type " + response.getType()));
+                }
+            }
+        } catch (Exception error) {
+            failed(error);
+        }
+    }
+
+    // the connection broke while in use, which may mean the satellite is gone
+    private void failed(Exception reason) {
+        if (open) {
+            Server.satelliteManager.satelliteFailed(satelliteInfo.getName(), reason);
+        }
+        close(reason);
+    }
+
+    // fail whatever is still pending, nobody is going to answer it
+    private void close(Exception reason) {
+        open = false;
+        channel.close();
+        streams.clear();
+
+        Iterator<CompletableFuture<Message>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().completeExceptionally(reason);
+            iterator.remove();
+        }
+    }
+}
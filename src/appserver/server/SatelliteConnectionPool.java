@@ -0,0 +1,93 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class [SatelliteConnectionPool] A small, fixed number of connections to one satellite.
+ * Connections are opened on first use and replaced when they break. Requests are spread
+ * over the connections, each connection carries many of them at the same time.
+ */
+public class SatelliteConnectionPool {
+
+    private final ConnectivityInfo satelliteInfo;
+    private final AtomicReferenceArray<SatelliteConnection> connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    public SatelliteConnectionPool(ConnectivityInfo satelliteInfo, int size) {
+        this.satelliteInfo = satelliteInfo;
+        this.connections = new AtomicReferenceArray<SatelliteConnection>(Math.max(1, size));
+    }
+
+    /**
+     * Sends a job request over one of the pooled connections
+     */
+    public CompletableFuture<Message> send(Message message) {
+        return send(message, null);
+    }
+
+    /**
+     * Sends a request whose results may be streamed, see SatelliteConnection
+     */
+    public CompletableFuture<Message> send(Message message, StreamRelay relay) {
+        try {
+            return getConnection().send(message, relay);
+        } catch (IOException error) {
+            // could not connect
+            Server.satelliteManager.satelliteFailed(satelliteInfo.getName(), error);
+            CompletableFuture<Message> failed = new CompletableFuture<Message>();
+            failed.completeExceptionally(error);
+            return failed;
+        }
+    }
+
+    /**
+     * Sends a message the satellite does not answer, over one of the pooled connections
+     */
+    public void sendOneWay(Message message) {
+        try {
+            getConnection().sendOneWay(message);
+        } catch (IOException error) {
+            Server.satelliteManager.satelliteFailed(satelliteInfo.getName(), error);
+        }
+    }
+
+    public ConnectivityInfo getSatelliteInfo() {
+        return satelliteInfo;
+    }
+
+    // pick the next connection slot, (re)connecting it if necessary;
+    // only reconnecting takes the lock, a healthy connection is handed out right away
+    private SatelliteConnection getConnection() throws IOException {
+        int slot = Math.floorMod(nextConnection.getAndIncrement(), connections.length());
+
+        SatelliteConnection connection = connections.get(slot);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+
+        synchronized (this) {
+            connection = connections.get(slot);
+            if (connection == null || !connection.isOpen()) {
+                connection = new SatelliteConnection(satelliteInfo);
+                connections.set(slot, connection);
+            }
+            return connection;
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            for (int i = 0; i < connections.length(); i++) {
+                SatelliteConnection connection = connections.getAndSet(i, null);
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package appserver.server;
+
+import appserver.comm.LoadReport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class [SatelliteLoad] What the load manager knows about the load of one satellite:
+ * the number of jobs in flight and an exponentially weighted moving average of job latency.
+ * All updates are lock-free, they happen on the dispatch path of every job.
+ */
+public class SatelliteLoad {
+
+    private final String name;
+    private final AtomicInteger outstandingJobs = new AtomicInteger();
+
+    // latency average in nanoseconds as double bits, negative as long as nothing was measured
+    private final AtomicLong averageLatency = new AtomicLong(Double.doubleToLongBits(-1));
+    private final double alpha;
+
+    // the load the satellite reported last
+    private volatile LoadReport lastReport = null;
+
+    public SatelliteLoad(String name, double alpha) {
+        this.name = name;
+        this.alpha = alpha;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getOutstandingJobs() {
+        return outstandingJobs.get();
+    }
+
+    public double getAverageLatency() {
+        return Double.longBitsToDouble(averageLatency.get());
+    }
+
+    // jobs sent to the satellite that are not running yet, as far as we know: those beyond its workers.
+    // Unlike the queue depth it reports, this is always up to date
+    public int getWaitingJobs() {
+        LoadReport report = lastReport;
+        return outstandingJobs.get() - (report == null ? 1 : report.getWorkers());
+    }
+
+    public LoadReport getLastReport() {
+        return lastReport;
+    }
+
+    // the satellite said its queue is full, and has not said otherwise since
+    public boolean isSaturated() {
+        LoadReport report = lastReport;
+        return report != null && report.isSaturated();
+    }
+
+    void loadReported(LoadReport report) {
+        lastReport = report;
+    }
+
+    // a batch of jobs counts as that many outstanding jobs, and as one latency measurement
+    void jobsStarted(int jobs) {
+        outstandingJobs.addAndGet(jobs);
+    }
+
+    // a negative latency: the jobs were not answered (rejected, stolen, cancelled), nothing was measured
+    void jobsStopped(int jobs, long latency) {
+        outstandingJobs.addAndGet(-jobs);
+        if (latency < 0) {
+            return;
+        }
+
+        long oldBits;
+        double newAverage;
+        do {
+            oldBits = averageLatency.get();
+            double oldAverage = Double.longBitsToDouble(oldBits);
+            newAverage = oldAverage < 0 ? latency : alpha * latency + (1 - alpha) * oldAverage;
+        } while (!averageLatency.compareAndSet(oldBits, Double.doubleToLongBits(newAverage)));
+    }
+}
@@ -1,32 +1,225 @@
 package appserver.server;
 
 import appserver.comm.ConnectivityInfo;
+import appserver.comm.LoadReport;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Class [SatelliteManager] The satellites registered with the server, how to reach them, and whether
+ * they are healthy. A satellite is HEALTHY as long as its heartbeats arrive; it is SUSPECT once they stop
+ * for heartbeatTimeout or a connection to it fails, and gets no new jobs until the next heartbeat.
+ * A satellite SUSPECT for downTimeout is DOWN: its connections are closed and it is forgotten,
+ * until it registers again.
  *
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class SatelliteManager {
 
-    // (the one) hash table that contains the connectivity information of all satellite servers
-    static private Hashtable<String, ConnectivityInfo> satellites = null;
+    public enum Health {
+        HEALTHY, SUSPECT, DOWN
+    }
+
+    // health of a satellite, changed by heartbeats, failures and the monitor
+    static class SatelliteHealth {
+
+        Health state = Health.HEALTHY;
+        long lastHeartbeat = System.nanoTime();
+        // when it became SUSPECT
+        long suspectSince;
+    }
+
+    // (the one) hash table that contains the connectivity information of all satellite servers,
+    // lookups happen for every job and must not wait for a registration
+    static private ConcurrentHashMap<String, ConnectivityInfo> satellites = null;
+    // the pools of long-lived connections to the satellites, by satellite name
+    static private ConcurrentHashMap<String, SatelliteConnectionPool> connectionPools = null;
+    static private ConcurrentHashMap<String, SatelliteHealth> health = null;
+    static private int connectionsPerSatellite = 2;
+
+    static private long heartbeatTimeout = TimeUnit.MILLISECONDS.toNanos(3000);
+    static private long downTimeout = TimeUnit.MILLISECONDS.toNanos(30000);
+    static private ScheduledExecutorService monitor = null;
 
     public SatelliteManager() {
-        satellites = new Hashtable<String, ConnectivityInfo>();
+        satellites = new ConcurrentHashMap<String, ConnectivityInfo>();
+        connectionPools = new ConcurrentHashMap<String, SatelliteConnectionPool>();
+        health = new ConcurrentHashMap<String, SatelliteHealth>();
+    }
+
+    public void setConnectionsPerSatellite(int connections) {
+        connectionsPerSatellite = connections;
+    }
+
+    /**
+     * Starts checking for satellites whose heartbeats stopped: SUSPECT after heartbeatTimeout milliseconds
+     * without one, DOWN after another downTimeout milliseconds
+     */
+    public void startHealthMonitor(long heartbeatTimeoutMillis, long downTimeoutMillis) {
+        heartbeatTimeout = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMillis);
+        downTimeout = TimeUnit.MILLISECONDS.toNanos(downTimeoutMillis);
+
+        monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "satellite-health-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, heartbeatTimeoutMillis / 3);
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkHealth();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
     }
 
-    public void registerSatellite(ConnectivityInfo satelliteInfo) {
+    // registering and unregistering are serialized, so a satellite found DOWN is not unregistered
+    // half-way through registering again
+    public synchronized void registerSatellite(ConnectivityInfo satelliteInfo) {
         satellites.put(satelliteInfo.getName(), satelliteInfo);
+
+        // a satellite registering again may have moved, drop the connections to its old address
+        SatelliteConnectionPool oldPool = connectionPools.put(satelliteInfo.getName(), new SatelliteConnectionPool(satelliteInfo, connectionsPerSatellite));
+        if (oldPool != null) {
+            oldPool.close();
+        }
+
+        health.put(satelliteInfo.getName(), new SatelliteHealth());
+        Server.loadManager.satelliteAdded(satelliteInfo.getName());
+    }
+
+    /**
+     * Forgets a satellite that is going away, or is DOWN
+     */
+    public synchronized void unregisterSatellite(String satelliteName) {
+        Server.loadManager.satelliteRemoved(satelliteName);
+        health.remove(satelliteName);
+        satellites.remove(satelliteName);
+        SatelliteConnectionPool pool = connectionPools.remove(satelliteName);
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * A heartbeat arrived, returns false if the satellite is not registered (any more)
+     */
+    public boolean heartbeat(String satelliteName, LoadReport report) {
+        SatelliteHealth satelliteHealth = health.get(satelliteName);
+        if (satelliteHealth == null) {
+            return false;
+        }
+        Server.loadManager.satelliteLoadReported(satelliteName, report);
+
+        synchronized (satelliteHealth) {
+            satelliteHealth.lastHeartbeat = System.nanoTime();
+            if (satelliteHealth.state == Health.SUSPECT) {
+                satelliteHealth.state = Health.HEALTHY;
+                Server.loadManager.satelliteAdded(satelliteName);
+                System.out.println("[SatelliteManager] Satellite " + satelliteName + " recovered, " + report);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Talking to a satellite failed: no new jobs for it until it sends a heartbeat again
+     */
+    public void satelliteFailed(String satelliteName, Exception reason) {
+        SatelliteHealth satelliteHealth = health.get(satelliteName);
+        if (satelliteHealth != null) {
+            suspect(satelliteName, satelliteHealth, reason.toString());
+        }
+    }
+
+    // called by the monitor, moves satellites along whose heartbeats stopped
+    private void checkHealth() {
+        long now = System.nanoTime();
+        for (String satelliteName : health.keySet()) {
+            SatelliteHealth satelliteHealth = health.get(satelliteName);
+            if (satelliteHealth == null) {
+                continue;
+            }
+
+            boolean down = false;
+            synchronized (satelliteHealth) {
+                if (satelliteHealth.state == Health.HEALTHY && now - satelliteHealth.lastHeartbeat > heartbeatTimeout) {
+                    suspect(satelliteName, satelliteHealth, "no heartbeat for "
+                            + TimeUnit.NANOSECONDS.toMillis(now - satelliteHealth.lastHeartbeat) + " ms");
+                } else if (satelliteHealth.state == Health.SUSPECT && now - satelliteHealth.suspectSince > downTimeout) {
+                    satelliteHealth.state = Health.DOWN;
+                    down = true;
+                }
+            }
+            if (down) {
+                synchronized (this) {
+                    // unless it registered again meanwhile
+                    if (health.get(satelliteName) == satelliteHealth) {
+                        System.err.println("[SatelliteManager] Satellite " + satelliteName + " is down, unregistering it");
+                        unregisterSatellite(satelliteName);
+                    }
+                }
+            }
+        }
+    }
+
+    private void suspect(String satelliteName, SatelliteHealth satelliteHealth, String reason) {
+        synchronized (satelliteHealth) {
+            if (satelliteHealth.state != Health.HEALTHY) {
+                return;
+            }
+            satelliteHealth.state = Health.SUSPECT;
+            satelliteHealth.suspectSince = System.nanoTime();
+            // in the lock, like a recovery, so a heartbeat cannot put it back before it is taken out
+            Server.loadManager.satelliteRemoved(satelliteName);
+        }
+        System.err.println("[SatelliteManager] Satellite " + satelliteName + " suspect, out of rotation: " + reason);
+    }
+
+    public Health getHealth(String satelliteName) {
+        SatelliteHealth satelliteHealth = health.get(satelliteName);
+        if (satelliteHealth == null) {
+            return Health.DOWN;
+        }
+        synchronized (satelliteHealth) {
+            return satelliteHealth.state;
+        }
+    }
+
+    /**
+     * The names of the satellites that are HEALTHY right now, sorted
+     */
+    public List<String> getHealthySatellites() {
+        List<String> healthy = new ArrayList<String>();
+        for (String satelliteName : health.keySet()) {
+            if (getHealth(satelliteName) == Health.HEALTHY) {
+                healthy.add(satelliteName);
+            }
+        }
+        Collections.sort(healthy);
+        return healthy;
     }
 
     public ConnectivityInfo getSatelliteForName(String satelliteName) {
         return satellites.get(satelliteName);
     }
+
+    public SatelliteConnectionPool getConnectionPool(String satelliteName) {
+        return connectionPools.get(satelliteName);
+    }
     
     public Enumeration getSatellites() {
-        return satellites.elements();
+        return Collections.enumeration(satellites.values());
     }
 
     public void showSatellites() {
@@ -35,7 +228,8 @@ public class SatelliteManager {
         System.err.println("\n[ServerThread.run] registered satellites");
         while (satelliteEnum.hasMoreElements()) {
             satelliteInfo = (ConnectivityInfo) satelliteEnum.nextElement();
-            System.out.println("Satellite IP  : " + satelliteInfo.getHost() + " Satellite port: " + satelliteInfo.getPort() + " Satellite name: " + satelliteInfo.getName());
+            System.out.println("Satellite IP  : " + satelliteInfo.getHost() + " Satellite port: " + satelliteInfo.getPort() + " Satellite name: " + satelliteInfo.getName()
+                    + " Health: " + getHealth(satelliteInfo.getName()));
         }
     }
 }
@@ -0,0 +1,233 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import appserver.job.DivisibleTool;
+import appserver.job.Job;
+import appserver.satellite.HTTPClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Class [ScatterGather] Runs a job of a divisible tool on all healthy satellites at once: the tool
+ * splits the job into about one part per satellite, every part goes to its own satellite as a job
+ * of its own, and once all parts are done the tool merges their results into the job's result.
+ * If a part fails, so does the job, and the other parts are cancelled.
+ * <p>
+ * Only the tools declared in DIVISIBLE_TOOLS are split. To split and merge, the server loads their
+ * classes itself, from the web server the satellites load them from - once per tool, by a thread of
+ * its own. Other tools are never loaded here. A tool that cannot be loaded is run in one piece, and
+ * loading it is tried again after TOOL_LOAD_RETRY milliseconds.
+ */
+public class ScatterGather {
+
+    private final JobDispatcher jobDispatcher;
+    private final HTTPClassLoader classLoader;
+    private final ExecutorService loader;
+
+    // the tools that may be split, and milliseconds until loading one that failed is tried again
+    private final Set<String> divisibleTools = new HashSet<String>();
+    private final long loadRetry;
+
+    // the answer for tools that are not declared divisible
+    private static final CompletableFuture<DivisibleTool> NOT_DIVISIBLE = CompletableFuture.completedFuture(null);
+
+    // by declared tool name: the tool if it is divisible, else null - once its class was loaded
+    private final ConcurrentHashMap<String, CompletableFuture<DivisibleTool>> tools = new ConcurrentHashMap<String, CompletableFuture<DivisibleTool>>();
+
+    // which satellite gets the first part, so the parts that take longest do not always land on the same one
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    // statistics
+    private final LongAdder scattered = new LongAdder();
+    private final LongAdder parts = new LongAdder();
+
+    public ScatterGather(JobDispatcher jobDispatcher, Properties properties) {
+        this.jobDispatcher = jobDispatcher;
+        for (String tool : properties.getProperty("DIVISIBLE_TOOLS", "").split(",")) {
+            if (!tool.trim().isEmpty()) {
+                divisibleTools.add(tool.trim());
+            }
+        }
+        loadRetry = Long.parseLong(properties.getProperty("TOOL_LOAD_RETRY", "10000").trim());
+
+        classLoader = new HTTPClassLoader(properties.getProperty("WEB_SERVER_HOST", "127.0.0.1").trim(),
+                Integer.parseInt(properties.getProperty("WEB_SERVER_PORT").trim()));
+        classLoader.setTimeout(Integer.parseInt(properties.getProperty("TOOL_LOAD_TIMEOUT", "2000").trim()));
+        String bundleName = properties.getProperty("TOOL_BUNDLE");
+        if (bundleName != null && !bundleName.trim().isEmpty()) {
+            classLoader.setBundleName(bundleName.trim());
+        }
+        loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "tool-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * The tool of that name if it is declared divisible and is, null if not - or if it cannot be loaded
+     * here, which the satellite running the job will tell. Completes right away but for the first job
+     * of a declared tool
+     */
+    public CompletableFuture<DivisibleTool> getDivisibleTool(final String toolName) {
+        if (!divisibleTools.contains(toolName)) {
+            return NOT_DIVISIBLE;
+        }
+        CompletableFuture<DivisibleTool> tool = tools.get(toolName);
+        if (tool != null) {
+            return tool;
+        }
+        final CompletableFuture<DivisibleTool> newTool = new CompletableFuture<DivisibleTool>();
+        tool = tools.putIfAbsent(toolName, newTool);
+        if (tool != null) {
+            return tool;
+        }
+
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object instance = classLoader.loadClass(toolName).getDeclaredConstructor().newInstance();
+                    newTool.complete(instance instanceof DivisibleTool ? (DivisibleTool) instance : null);
+                    if (instance instanceof DivisibleTool) {
+                        System.out.println("[ScatterGather] " + toolName + " is divisible");
+                    } else {
+                        System.err.println("[ScatterGather] " + toolName + " does not implement DivisibleTool, it is not split");
+                    }
+                } catch (Throwable error) {
+                    // run its jobs in one piece for a while, the web server may have the class later
+                    System.err.println("[ScatterGather] " + toolName + " could not be loaded, not splitting it for "
+                            + loadRetry + " ms: " + error);
+                    newTool.complete(null);
+                    CompletableFuture.delayedExecutor(loadRetry, TimeUnit.MILLISECONDS).execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            tools.remove(toolName, newTool);
+                        }
+                    });
+                }
+            }
+        });
+        return newTool;
+    }
+
+    /**
+     * Splits the job, runs the parts on the healthy satellites and merges their results.
+     * The response is the merged result, or the first failure of a part
+     */
+    public CompletableFuture<Message> execute(final DivisibleTool tool, final Job job) {
+        List<String> satellites = Server.satelliteManager.getHealthySatellites();
+        final List<Object> partParameters;
+        try {
+            partParameters = tool.split(job.getParameters(), Math.max(1, satellites.size()));
+        } catch (RuntimeException error) {
+            return CompletableFuture.completedFuture(new Message(JOB_FAILED, "Job could not be split: " + error));
+        }
+        scattered.increment();
+        parts.add(partParameters.size());
+
+        // scatter: a job per part, with the deadline, priority and tenant of the whole job
+        final int partCount = partParameters.size();
+        final List<CompletableFuture<Message>> partResults = new ArrayList<CompletableFuture<Message>>(partCount);
+        int first = Math.floorMod(rotation.getAndIncrement(), Math.max(1, satellites.size()));
+        for (int i = 0; i < partCount; i++) {
+            Job part = new Job(job.getToolName(), partParameters.get(i));
+            part.setDeadline(job.getDeadline());
+            part.setPriority(job.getPriority());
+            part.setTenant(job.getTenant());
+            String satellite = satellites.isEmpty() ? null : satellites.get((first + i) % satellites.size());
+            partResults.add(satellite == null ? jobDispatcher.dispatch(part) : jobDispatcher.dispatch(part, satellite));
+        }
+
+        // gather: the job fails with its first part that does, and is merged when the last one succeeds
+        final CompletableFuture<Message> response = new CompletableFuture<Message>();
+        final Object[] results = new Object[partCount];
+        final AtomicInteger remaining = new AtomicInteger(partCount);
+        if (partCount == 0) {
+            merge(tool, job, results, false, response);
+        }
+        for (int i = 0; i < partCount; i++) {
+            final int index = i;
+            partResults.get(i).whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message result, Throwable error) {
+                    if (error != null) {
+                        response.completeExceptionally(error);
+                    } else if (result.getType() != JOB_RESULT) {
+                        response.complete(new Message(JOB_FAILED, "Part " + (index + 1) + " of " + partCount + " failed: " + result.getContent()));
+                    } else {
+                        results[index] = result.getContent();
+                        if (remaining.decrementAndGet() == 0) {
+                            merge(tool, job, results, allDeterministic(partResults), response);
+                        }
+                    }
+                }
+            });
+        }
+
+        // once there is a response - or the job was cancelled - the parts still running are not needed
+        response.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message result, Throwable error) {
+                for (CompletableFuture<Message> partResult : partResults) {
+                    partResult.cancel(false);
+                }
+            }
+        });
+        return response;
+    }
+
+    // merge off the thread that got the last result, usually the reader of a satellite connection
+    private void merge(final DivisibleTool tool, final Job job, final Object[] results, final boolean deterministic,
+            final CompletableFuture<Message> response) {
+        CompletableFuture.supplyAsync(new Supplier<Message>() {
+            @Override
+            public Message get() {
+                Message merged = new Message(JOB_RESULT, tool.merge(job.getParameters(), Arrays.asList(results)));
+                if (deterministic) {
+                    merged.setFlags(Message.DETERMINISTIC_RESULT);
+                }
+                return merged;
+            }
+        }).whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message merged, Throwable error) {
+                response.complete(error == null ? merged : new Message(JOB_FAILED, "Results could not be merged: " + error.getCause()));
+            }
+        });
+    }
+
+    // the satellites said every part's result is deterministic, so is the merged one
+    private static boolean allDeterministic(List<CompletableFuture<Message>> partResults) {
+        for (CompletableFuture<Message> partResult : partResults) {
+            if (!partResult.join().hasFlag(Message.DETERMINISTIC_RESULT)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "scattered " + scattered.sum() + " jobs into " + parts.sum() + " parts";
+    }
+}
@@ -0,0 +1,14 @@
+package appserver.server;
+
+/**
+ * Interface [SchedulingPolicy] Decides which satellite gets the next job.
+ * Implementations are selected by the LOAD_POLICY server property. They are called
+ * concurrently by all dispatching threads and must not block.
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Returns the satellite to send the next job to, the array is never empty and must not be modified
+     */
+    public SatelliteLoad select(SatelliteLoad[] satellites);
+}
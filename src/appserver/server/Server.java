@@ -1,15 +1,53 @@
 package appserver.server;
 
 import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.JOB_BATCH;
+import static appserver.comm.MessageTypes.JOB_FAILED;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
 import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.STEAL_JOBS;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.WORK_REQUEST;
 import appserver.comm.ConnectivityInfo;
+import appserver.comm.LoadReport;
+import appserver.comm.ObjectMessageChannel;
+import appserver.comm.StealRequest;
+import appserver.comm.WireProtocol;
+import appserver.job.DivisibleTool;
+import appserver.job.Job;
+import appserver.job.JobFailedException;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import utils.PropertyHandler;
 
 /**
@@ -26,6 +64,36 @@ public class Server {
     int port;
     Properties properties; // = new Properties();
 
+    // dispatcher that runs the ServerThreads, and the admission control in front of it
+    ExecutorService dispatcher = null;
+    Semaphore admission = null;
+    long admissionTimeout;
+
+    // requests a single client connection may have in flight
+    int maxInFlight;
+
+    // how long a job waits before trying again when every satellite is saturated, and at most in total
+    long saturationBackoff;
+    long saturationTimeout;
+
+    // fewest jobs of a batch sent to one satellite
+    int batchMinSlice;
+
+    // jobs waiting at a satellite at least before an idle one may steal some, 0 if none are stolen
+    int stealMinQueue;
+
+    // results of deterministic tools, null if disabled
+    ResultCache resultCache = null;
+
+    // sends jobs to the satellites, and again if need be
+    JobDispatcher jobDispatcher = null;
+
+    // decides whose jobs go to the satellites first when they have enough to do
+    JobScheduler jobScheduler = null;
+
+    // splits jobs of divisible tools across the satellites, null if the server cannot load tools
+    ScatterGather scatterGather = null;
+
     public Server(String serverPropertiesFile) {
 
         try {
@@ -39,6 +107,42 @@ public class Server {
             port = Integer.parseInt(properties.getProperty("PORT"));
             System.out.println("Server port : " + port);
 
+            // wire format of the connections to the satellites
+            WireProtocol.configure(properties);
+            System.out.println("Server wire protocol : " + WireProtocol.getProtocol());
+
+            // number of long-lived connections kept open to every satellite
+            satelliteManager.setConnectionsPerSatellite(Integer.parseInt(properties.getProperty("SATELLITE_CONNECTIONS", "2").trim()));
+
+            // scheduling policy of the load manager
+            loadManager.setLatencyAlpha(Double.parseDouble(properties.getProperty("LATENCY_ALPHA", "0.3").trim()));
+            loadManager.setPolicy(properties.getProperty("LOAD_POLICY", "round-robin").trim());
+            System.out.println("Server load policy : " + properties.getProperty("LOAD_POLICY", "round-robin").trim());
+
+            // requests a client may pipeline on one connection before the server stops reading from it
+            maxInFlight = Integer.parseInt(properties.getProperty("CONNECTION_MAX_IN_FLIGHT", "1024").trim());
+            saturationBackoff = Long.parseLong(properties.getProperty("SATURATION_BACKOFF", "10").trim());
+            saturationTimeout = Long.parseLong(properties.getProperty("SATURATION_TIMEOUT", "10000").trim());
+            batchMinSlice = Integer.parseInt(properties.getProperty("BATCH_MIN_SLICE", "16").trim());
+            stealMinQueue = Integer.parseInt(properties.getProperty("STEAL_MIN_QUEUE", "1").trim());
+
+            // satellites without heartbeats get no jobs, and are forgotten after a while
+            satelliteManager.startHealthMonitor(Long.parseLong(properties.getProperty("HEARTBEAT_TIMEOUT", "3000").trim()),
+                    Long.parseLong(properties.getProperty("SATELLITE_DOWN_TIMEOUT", "30000").trim()));
+
+            // memoization of results of deterministic tools
+            createResultCache();
+
+            // retries, timeouts and hedging of jobs sent to the satellites
+            jobDispatcher = new JobDispatcher(this, properties);
+            // priority lanes and fair shares of the tenants in front of it
+            jobScheduler = new JobScheduler(properties);
+            createScatterGather();
+            startStatisticsReporter();
+
+            // create the dispatcher that runs the ServerThreads
+            createDispatcher();
+
             // create server socket
             serverSocket = new ServerSocket(port);
 
@@ -49,13 +153,121 @@ public class Server {
 
     }
 
+    // create the result cache according to the RESULT_CACHE_* server properties, a size of 0 disables it
+    private void createResultCache() {
+        int size = Integer.parseInt(properties.getProperty("RESULT_CACHE_SIZE", "0").trim());
+        if (size <= 0) {
+            return;
+        }
+        long timeToLive = Long.parseLong(properties.getProperty("RESULT_CACHE_TTL", "300000").trim());
+        List<String> tools = new ArrayList<String>();
+        for (String tool : properties.getProperty("DETERMINISTIC_TOOLS", "").split(",")) {
+            if (!tool.trim().isEmpty()) {
+                tools.add(tool.trim());
+            }
+        }
+        resultCache = new ResultCache(size, timeToLive, tools);
+        System.out.println("Server result cache : " + size + " results for " + timeToLive + " ms");
+
+    }
+
+    // split jobs of the DIVISIBLE_TOOLS, loaded from the web server given by the WEB_SERVER_* server properties;
+    // without those, no job is split
+    private void createScatterGather() {
+        String webServerPort = properties.getProperty("WEB_SERVER_PORT", "");
+        String divisibleTools = properties.getProperty("DIVISIBLE_TOOLS", "");
+        if (webServerPort.trim().isEmpty() || divisibleTools.trim().isEmpty()) {
+            return;
+        }
+        scatterGather = new ScatterGather(jobDispatcher, properties);
+        System.out.println("Server scatter-gather : " + divisibleTools.trim() + ", loaded from "
+                + properties.getProperty("WEB_SERVER_HOST", "127.0.0.1").trim() + ":" + webServerPort.trim());
+    }
+
+    // report the statistics of the result cache, the job dispatcher and the scheduler now and then, when they changed
+    private void startStatisticsReporter() {
+        final long interval = Long.parseLong(properties.getProperty("STATISTICS_INTERVAL", "60000").trim());
+        Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String lastCache = "";
+                String lastDispatch = "";
+                String lastSchedule = "";
+                String lastScatter = "";
+                try {
+                    while (true) {
+                        Thread.sleep(interval);
+                        String cache = resultCache == null ? "" : resultCache.toString();
+                        if (!cache.equals(lastCache)) {
+                            lastCache = cache;
+                            System.out.println("[Server] Result cache: " + cache);
+                        }
+                        String dispatch = jobDispatcher.toString();
+                        if (!dispatch.equals(lastDispatch)) {
+                            lastDispatch = dispatch;
+                            System.out.println("[Server] Dispatch: " + dispatch);
+                        }
+                        String schedule = jobScheduler.toString();
+                        if (!schedule.equals(lastSchedule)) {
+                            lastSchedule = schedule;
+                            System.out.println("[Server] Scheduling: " + schedule);
+                        }
+                        String scatter = scatterGather == null ? "" : scatterGather.toString();
+                        if (!scatter.equals(lastScatter)) {
+                            lastScatter = scatter;
+                            System.out.println("[Server] Scatter-gather: " + scatter);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // done reporting
+                }
+            }
+        }, "statistics-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    // create the dispatcher according to the DISPATCHER_* server properties:
+    // "virtual" runs every connection on its own virtual thread (needs a Java runtime that has them),
+    // "bounded" runs connections on a fixed number of platform threads. A connection holds its thread
+    // as long as it is open - clients pipeline their requests over it, satellites send heartbeats -
+    // so many connections need "virtual"
+    private void createDispatcher() {
+        String mode = properties.getProperty("DISPATCHER", "bounded").trim();
+        int threads = Integer.parseInt(properties.getProperty("DISPATCHER_THREADS", "64").trim());
+        int queueSize = Integer.parseInt(properties.getProperty("DISPATCHER_QUEUE", "1024").trim());
+        admissionTimeout = Long.parseLong(properties.getProperty("ADMISSION_TIMEOUT", "1000").trim());
+
+        if (mode.equalsIgnoreCase("virtual")) {
+            try {
+                dispatcher = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                // virtual threads are cheap, but connections are not - cap how many are in progress
+                admission = new Semaphore(threads + queueSize);
+                System.out.println("Server dispatcher : virtual threads, at most " + (threads + queueSize) + " connections");
+                return;
+            } catch (ReflectiveOperationException error) {
+                System.err.println("Server warning : virtual threads not available, using bounded dispatcher");
+            }
+        }
+
+        // the queue only bridges the moment between a connection closing and its thread taking the next one
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads));
+        pool.allowCoreThreadTimeOut(true);
+        dispatcher = pool;
+        // a permit for every thread: a connection queued behind open connections might never be served,
+        // so one is only admitted when a thread is free for it, and rejected if none gets free in time
+        admission = new Semaphore(threads);
+        System.out.println("Server dispatcher : " + threads + " threads, at most " + threads + " connections");
+    }
+
     public void run() {
     // start serving clients in server loop ...
         while(true){
             System.out.println("Server waiting for port");
             try {
 
-                new Thread(new ServerThread(serverSocket.accept())).start();
+                dispatch(serverSocket.accept());
 
             } catch (IOException error) {
                 System.err.println("Server error : " + error);
@@ -63,40 +275,124 @@ public class Server {
         }
     }
 
-    // objects of this helper class communicate with clients
-    private class ServerThread extends Thread {
+    // hand a client connection to the dispatcher, if it is admitted
+    private void dispatch(Socket client) {
+        boolean admitted = false;
+        try {
+            admitted = admission.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!admitted) {
+            System.err.println("[Server.dispatch] Server saturated, every dispatcher thread holds an open connection, rejecting connection from "
+                    + client.getRemoteSocketAddress());
+            closeQuietly(client);
+            return;
+        }
+
+        final ServerThread serverThread = new ServerThread(client);
+        try {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serverThread.run();
+                    } finally {
+                        admission.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException error) {
+            admission.release();
+            System.err.println("[Server.dispatch] Dispatcher rejected connection: " + error);
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException error) {
+        }
+    }
+
+    // objects of this helper class communicate with clients, they are run by the dispatcher.
+    // A client connection carries any number of requests; they are forwarded as they come in and
+    // answered in whatever order their results arrive, tagged with the request's correlation id
+    private class ServerThread implements Runnable {
 
         Socket client = null;
-        ObjectInputStream readFromNet = null;
-        ObjectOutputStream writeToNet = null;
+        MessageChannel channel = null;
         Message message = null;
 
+        // requests of this connection forwarded but not answered yet - reading stops at the limit
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        // streaming requests among them, by the client's correlation id
+        Map<Long, StreamRelay> streams = new ConcurrentHashMap<Long, StreamRelay>();
+        // and single jobs, which the client may cancel
+        Map<Long, CompletableFuture<Message>> jobs = new ConcurrentHashMap<Long, CompletableFuture<Message>>();
+
+        // the satellite on the other end, if this is a satellite's registration connection
+        ConnectivityInfo registeredSatellite = null;
+
         private ServerThread(Socket client) {
             this.client = client;
         }
 
         @Override
         public void run() {
-            // setting up object streams
+            // setting up the message channel, in the wire format the client starts with
              try {
 
-                readFromNet = new ObjectInputStream(client.getInputStream());
-                writeToNet = new ObjectOutputStream(client.getOutputStream());
-                message = (Message) readFromNet.readObject();
+                // responses are small and must not wait for the client's acknowledgement (Nagle)
+                client.setTcpNoDelay(true);
+                channel = WireProtocol.accept(client);
 
             } catch (Exception e) {
-                System.err.println("[ServerThread.run] Message could not be read from object stream.");
+                System.err.println("[ServerThread.run] Message channel could not be set up.");
                 e.printStackTrace();
-                System.exit(1);
+                closeQuietly(client);
+                return;
             }
 
+            try {
+                while (process()) {
+                    ;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // a satellite that hangs up without unregistering may have died
+            if (registeredSatellite != null) {
+                satelliteManager.satelliteFailed(registeredSatellite.getName(), new IOException("registration connection lost"));
+            }
+
+            // nobody is left to take the results; stop what is still in flight before hanging up
+            for (StreamRelay relay : streams.values()) {
+                relay.cancel();
+            }
+            for (CompletableFuture<Message> job : jobs.values()) {
+                job.cancel(false);
+            }
+            inFlight.acquireUninterruptibly(maxInFlight);
+            closeQuietly(client);
+        }
+
+        // read and process one message, returns false when the connection is done
+        private boolean process() throws InterruptedException {
             // reading message
             try {
-                message = (Message) readFromNet.readObject();
+                message = channel.readMessage();
+            } catch (EOFException e) {
+                // the client hung up
+                return false;
             } catch (Exception e) {
-                System.err.println("[ServerThread.run] Message could not be read from object stream.");
+                System.err.println("[ServerThread.run] Message could not be read from channel.");
                 e.printStackTrace();
-                System.exit(1);
+                return false;
             }
 
             // processing message
@@ -107,80 +403,440 @@ public class Server {
                     satelliteInfo = (ConnectivityInfo) message.getContent();
                     System.out.println("[ServerThread] Satellite name: " + satelliteInfo.getName() );
 
-                    // register satellite
-                    synchronized (Server.satelliteManager) {
-                        // add info from [this] satellite to Manager class
-                        satelliteManager.registerSatellite(satelliteInfo);
+                    // register satellite, add info from [this] satellite to Manager class,
+                    // which puts it into the rotation of the load manager
+                    satelliteManager.registerSatellite(satelliteInfo);
+
+                    // the connection stays open for the satellite's heartbeats
+                    registeredSatellite = satelliteInfo;
+                    return true;
+
+                case HEARTBEAT:
+                    if (registeredSatellite != null) {
+                        LoadReport load = (LoadReport) message.getContent();
+                        if (!satelliteManager.heartbeat(registeredSatellite.getName(), load)) {
+                            // it was given up on, but is still alive
+                            System.out.println("[ServerThread] Satellite " + registeredSatellite.getName() + " is back, registering it again");
+                            satelliteManager.registerSatellite(registeredSatellite);
+                        } else if (load.getQueueDepth() == 0 && load.getActiveJobs() < load.getWorkers()) {
+                            // idle, and not asking for work since it did not just finish a job
+                            stealFor(registeredSatellite.getName(), load);
+                        }
                     }
+                    return true;
 
-                    // add satellite to loadManager
-                    synchronized (Server.loadManager) {
-                        loadManager.satelliteAdded(satelliteInfo.getName());
+                case WORK_REQUEST:
+                    // a satellite ran out of jobs
+                    if (registeredSatellite != null) {
+                        loadManager.satelliteLoadReported(registeredSatellite.getName(), (LoadReport) message.getContent());
+                        stealFor(registeredSatellite.getName(), (LoadReport) message.getContent());
                     }
+                    return true;
 
-                    break;
+                case UNREGISTER_SATELLITE:
+                    System.out.println("[ServerThread] Satellite " + message.getContent() + " unregistered");
+                    satelliteManager.unregisterSatellite((String) message.getContent());
+                    registeredSatellite = null;
+                    return false;
 
                 case JOB_REQUEST:
                     System.err.println("\n[ServerThread.run] Received job request");
+                    inFlight.acquire();
+                    final long jobId = message.getCorrelationId();
+                    final CompletableFuture<Message> response = executeJob((Job) message.getContent());
+                    jobs.put(jobId, response);
+                    response.whenComplete(new BiConsumer<Message, Throwable>() {
+                        @Override
+                        public void accept(Message result, Throwable error) {
+                            jobs.remove(jobId, response);
+                        }
+                    });
+                    respondWhenDone(jobId, response);
+                    return true;
+
+                case CANCEL_JOB:
+                    // the client gave up on a job, and expects no response
+                    CompletableFuture<Message> cancelled = jobs.remove(message.getCorrelationId());
+                    if (cancelled != null) {
+                        cancelled.cancel(false);
+                    }
+                    return true;
+
+                case JOB_BATCH:
+                    @SuppressWarnings("unchecked")
+                    List<Job> batch = (List<Job>) message.getContent();
+                    inFlight.acquire();
+                    // cancelled like a single job, by the client or when it hangs up
+                    final long batchId = message.getCorrelationId();
+                    final CompletableFuture<Message> batchResponse = executeBatch(batch);
+                    jobs.put(batchId, batchResponse);
+                    batchResponse.whenComplete(new BiConsumer<Message, Throwable>() {
+                        @Override
+                        public void accept(Message result, Throwable error) {
+                            jobs.remove(batchId, batchResponse);
+                        }
+                    });
+                    respondWhenDone(batchId, batchResponse);
+                    return true;
+
+                case STREAM_REQUEST:
+                    inFlight.acquire();
+                    if (channel instanceof ObjectMessageChannel) {
+                        // no way to grant credits over object streams, the client gets the gathered results
+                        respondWhenDone(message.getCorrelationId(), executeJob((Job) message.getContent()));
+                        return true;
+                    }
+                    final long streamId = message.getCorrelationId();
+                    StreamRelay relay = new StreamRelay(channel, streamId);
+                    streams.put(streamId, relay);
+                    CompletableFuture<Message> streamEnd = executeStream((Job) message.getContent(), relay);
+                    streamEnd.whenComplete(new BiConsumer<Message, Throwable>() {
+                        @Override
+                        public void accept(Message response, Throwable error) {
+                            streams.remove(streamId);
+                        }
+                    });
+                    respondWhenDone(streamId, streamEnd);
+                    return true;
+
+                case STREAM_CREDIT:
+                    StreamRelay stream = streams.get(message.getCorrelationId());
+                    if (stream != null) {
+                        stream.grant((Integer) message.getContent());
+                    }
+                    return true;
 
-                    String satelliteName = null;
-                    synchronized (Server.loadManager) {
-                        // get next satellite from load manager
-                        try {
-
-                            satelliteName = loadManager.nextSatellite();
+                default:
+                    System.err.println("[ServerThread.run] Warning: Message type not implemented");
+                    return true;
+            }
+        }
 
-                        } catch (Exception error) {
-                            System.err.println("Server error: " + error);
-                            System.exit(1);
+        // write the response once it is there. This runs on whatever thread completed the result,
+        // usually the reader of a satellite connection, so it must not do more than write
+        private void respondWhenDone(final long correlationId, CompletableFuture<Message> pendingResponse) {
+            pendingResponse.whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message response, Throwable error) {
+                    try {
+                        Message reply;
+                        if (error instanceof CancellationException) {
+                            // cancelled by the client, or because it hung up
+                            return;
+                        } else if (error != null) {
+                            System.err.println("Server error : " + error);
+                            reply = new Message(JOB_FAILED, "Server error: " + error.getMessage());
+                        } else {
+                            // responses from the result cache are shared, tag a copy
+                            reply = new Message(response.getType(), response.getContent());
                         }
+                        reply.setCorrelationId(correlationId);
+                        writeResponse(reply);
+                    } catch (IOException writeError) {
+                        System.err.println("[ServerThread.respondWhenDone] Response could not be written: " + writeError);
+                        closeQuietly(client);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
 
-                        // get connectivity info for next satellite from satellite manager
-                        try {
-
-                            satelliteInfo = satelliteManager.getSatelliteForName(satelliteName);
+        // clients talking object streams get the bare result (or the exception), the others a message
+        private void writeResponse(Message response) throws IOException {
+            if (channel instanceof ObjectMessageChannel) {
+                Object result = response.getContent();
+                if (response.getType() == JOB_FAILED) {
+                    result = new JobFailedException((String) result);
+                }
+                ((ObjectMessageChannel) channel).writeObject(result);
+            } else {
+                channel.writeMessage(response);
+            }
+        }
+    }
 
-                        } catch (Exception error) {
-                            System.err.println("Server error: " + error);
-                            System.exit(1);
-                        }
+    // an idle satellite wants work: the busiest other satellite gives it up to half of the jobs waiting there,
+    // as many as the idle one has workers. They come back as stolen, and forward() sends them on to the idle one
+    void stealFor(String idleSatellite, LoadReport idleLoad) {
+        if (stealMinQueue <= 0) {
+            return;
+        }
+        SatelliteLoad busiest = loadManager.busiestSatellite(idleSatellite, stealMinQueue);
+        if (busiest == null) {
+            return;
+        }
+        SatelliteConnectionPool connectionPool = satelliteManager.getConnectionPool(busiest.getName());
+        if (connectionPool == null) {
+            return;
+        }
+        int jobs = Math.min((busiest.getWaitingJobs() + 1) / 2, Math.max(1, idleLoad.getWorkers()));
+        connectionPool.sendOneWay(new Message(STEAL_JOBS, new StealRequest(idleSatellite, jobs)));
+    }
 
-                    }
+    // forward a job to a satellite, the response is a JOB_RESULT or JOB_FAILED message
+    CompletableFuture<Message> executeJob(final Job job) {
+        if (resultCache == null) {
+            return forwardJob(job);
+        }
+        if (resultCache.isDeterministic(job.getToolName())) {
+            return resultCache.get(job, new Function<Job, CompletableFuture<Message>>() {
+                @Override
+                public CompletableFuture<Message> apply(Job job) {
+                    return forwardJob(job);
+                }
+            });
+        }
 
-                    Socket satelliteSocket = null;
-                    ObjectInputStream satelliteReadFromNet;
-                    ObjectOutputStream satelliteWriteFromNet;
+        // a result may reveal the tool to be deterministic
+        CompletableFuture<Message> response = forwardJob(job);
+        response.thenAccept(new Consumer<Message>() {
+            @Override
+            public void accept(Message result) {
+                resultCache.resultArrived(job, result);
+            }
+        });
+        return response;
+    }
 
-                    try {
+    // forward a job, split across the satellites if its tool is divisible. Whether it is, is known
+    // right away but for the first job of a tool, which waits for the server to load the tool
+    private CompletableFuture<Message> forwardJob(final Job job) {
+        if (scatterGather == null) {
+            return forwardJob(job, null);
+        }
+        CompletableFuture<DivisibleTool> divisibleTool = scatterGather.getDivisibleTool(job.getToolName());
+        if (divisibleTool.isDone()) {
+            return forwardJob(job, divisibleTool.join());
+        }
 
-                        // connect to satellite
-                        satelliteSocket = new Socket(satelliteInfo.getHost(), satelliteInfo.getPort());
+        final CompletableFuture<Message> response = new CompletableFuture<Message>();
+        divisibleTool.thenAccept(new Consumer<DivisibleTool>() {
+            @Override
+            public void accept(DivisibleTool tool) {
+                if (response.isDone()) {
+                    // cancelled in the meantime
+                    return;
+                }
+                final CompletableFuture<Message> forwarded = forwardJob(job, tool);
+                forwarded.whenComplete(new BiConsumer<Message, Throwable>() {
+                    @Override
+                    public void accept(Message result, Throwable error) {
+                        if (error != null) {
+                            response.completeExceptionally(error);
+                        } else {
+                            response.complete(result);
+                        }
+                    }
+                });
+                response.whenComplete(new BiConsumer<Message, Throwable>() {
+                    @Override
+                    public void accept(Message result, Throwable error) {
+                        if (!forwarded.isDone()) {
+                            forwarded.cancel(false);
+                        }
+                    }
+                });
+            }
+        });
+        return response;
+    }
 
-                        // open object streams
+    // forward a job when the scheduler gives it its turn, in parts if a divisible tool is given
+    private CompletableFuture<Message> forwardJob(final Job job, final DivisibleTool tool) {
+        int cost = tool == null ? 1 : Math.max(1, loadManager.getSatelliteCount());
+        return jobScheduler.schedule(job.getPriority(), job.getTenant(), cost, new Supplier<CompletableFuture<Message>>() {
+            @Override
+            public CompletableFuture<Message> get() {
+                return tool == null ? jobDispatcher.dispatch(job) : scatterGather.execute(tool, job);
+            }
+        });
+    }
 
-                        satelliteReadFromNet = new ObjectInputStream(satelliteSocket.getInputStream());
-                        satelliteWriteFromNet = new ObjectOutputStream(satelliteSocket.getOutputStream());
+    // forward a job whose results are streamed to the client through the relay; the response ends the stream
+    CompletableFuture<Message> executeStream(Job job, StreamRelay relay) {
+        return forward(new Message(STREAM_REQUEST, job), 1, relay, null, 1, System.nanoTime());
+    }
 
-                        // forward message (as is) to satellite
-                        satelliteWriteFromNet.writeObject(message);
+    // split a batch into slices by the load of the satellites, and forward each slice as one message.
+    // The response lists the results in the order of the jobs; jobs that failed are represented
+    // by their JobFailedException. The batch is scheduled as a whole, by its first job
+    CompletableFuture<Message> executeBatch(final List<Job> jobs) {
+        if (jobs.isEmpty()) {
+            return CompletableFuture.completedFuture(new Message(JOB_RESULT, new ArrayList<Object>()));
+        }
+        return jobScheduler.schedule(jobs.get(0).getPriority(), jobs.get(0).getTenant(), jobs.size(),
+                new Supplier<CompletableFuture<Message>>() {
+                    @Override
+                    public CompletableFuture<Message> get() {
+                        return forwardBatch(jobs);
+                    }
+                });
+    }
 
-                        // receive result from satellite and
-                        Object result  = satelliteReadFromNet.readObject();
+    private CompletableFuture<Message> forwardBatch(List<Job> jobs) {
+        LinkedHashMap<String, Integer> plan;
+        try {
+            plan = loadManager.planBatch(jobs.size(), batchMinSlice);
+        } catch (Exception error) {
+            CompletableFuture<Message> failed = new CompletableFuture<Message>();
+            failed.completeExceptionally(error);
+            return failed;
+        }
 
-                        // write result back to client
-                        writeToNet.writeObject(result);writeToNet.writeObject(result);
+        final List<CompletableFuture<Message>> slices = new ArrayList<CompletableFuture<Message>>(plan.size());
+        final List<Integer> sliceSizes = new ArrayList<Integer>(plan.size());
+        int from = 0;
+        for (Map.Entry<String, Integer> slice : plan.entrySet()) {
+            ArrayList<Job> sliceJobs = new ArrayList<Job>(jobs.subList(from, from + slice.getValue()));
+            slices.add(jobDispatcher.dispatch(sliceJobs, slice.getKey()));
+            sliceSizes.add(sliceJobs.size());
+            from += sliceJobs.size();
+        }
 
-                    } catch (Exception error) {
-                        System.err.println("Server error : " + error);
-                        System.exit(1);
+        final int jobCount = jobs.size();
+        CompletableFuture<Message> response = CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, Message>() {
+                    @Override
+                    public Message apply(Void done) {
+                        ArrayList<Object> results = new ArrayList<Object>(jobCount);
+                        for (int i = 0; i < slices.size(); i++) {
+                            Message slice = slices.get(i).join();
+                            if (slice.getType() == JOB_RESULT) {
+                                results.addAll((List<?>) slice.getContent());
+                            } else {
+                                // the whole slice failed, so did every job in it
+                                for (int j = 0; j < sliceSizes.get(i); j++) {
+                                    results.add(new JobFailedException((String) slice.getContent()));
+                                }
+                            }
+                        }
+                        return new Message(JOB_RESULT, results);
+                    }
+                });
+
+        // whoever gives up on the batch - the client or the scheduler - gives up on the slices still running
+        response.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message result, Throwable error) {
+                for (CompletableFuture<Message> slice : slices) {
+                    if (!slice.isDone()) {
+                        slice.cancel(false);
                     }
+                }
+            }
+        });
+        return response;
+    }
 
-                    break;
+    // Forward a request for a number of jobs to a satellite: the one given, or the one the load manager
+    // picks. Streamed results go through the relay, if there is one. A satellite that rejects the
+    // request because its queue is full did not execute it, so it
+    // goes to the next satellite, until every satellite had a chance. If all of them are full, the
+    // request waits a little for them to drain and starts over, until it waited for saturationTimeout.
+    // A job the satellite gave to an idle one before it started goes there
+    CompletableFuture<Message> forward(final Message request, final int jobs, final StreamRelay relay,
+            String satellite, final int attempt, final long firstAttempt) {
+        final String satelliteName;
+        SatelliteConnectionPool connectionPool;
+        try {
+            // get next satellite from load manager, and its connectivity info from the
+            // satellite manager - neither takes a lock
+            satelliteName = satellite != null ? satellite : loadManager.nextSatellite();
+            connectionPool = satelliteManager.getConnectionPool(satelliteName);
+            if (connectionPool == null) {
+                // unregistered since it was picked
+                throw new Exception("Satellite " + satelliteName + " is not registered");
+            }
+        } catch (Exception error) {
+            CompletableFuture<Message> failed = new CompletableFuture<Message>();
+            failed.completeExceptionally(error);
+            return failed;
+        }
 
-                default:
-                    System.err.println("[ServerThread.run] Warning: Message type not implemented");
+        // forward job to satellite over one of the pooled connections,
+        // let the load manager know how long it was in flight
+        loadManager.satelliteJobsStarted(satelliteName, jobs);
+        final long startTime = System.nanoTime();
+        CompletableFuture<Message> pendingResult = connectionPool.send(request, relay);
+        // the attempt in flight: this one, until the job is forwarded once more; null once the response is done
+        final AtomicReference<CompletableFuture<Message>> liveAttempt = new AtomicReference<CompletableFuture<Message>>(pendingResult);
+        pendingResult.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message result, Throwable error) {
+                // only an answer to the jobs tells how fast the satellite is - a rejection comes back right away,
+                // a stolen or cancelled job never ran there
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                boolean answered = cause == null || cause instanceof JobFailedException;
+                loadManager.satelliteJobsStopped(satelliteName, jobs, answered ? System.nanoTime() - startTime : -1);
+            }
+        });
+
+        final CompletableFuture<Message> response = pendingResult.handle(new BiFunction<Message, Throwable, CompletableFuture<Message>>() {
+            @Override
+            public CompletableFuture<Message> apply(Message result, Throwable error) {
+                if (error == null) {
+                    return CompletableFuture.completedFuture(result);
+                }
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof JobFailedException) {
+                    // the satellite is fine, the job is not - let the client know
+                    return CompletableFuture.completedFuture(new Message(JOB_FAILED, cause.getMessage()));
+                }
+                if (cause instanceof JobStolenException) {
+                    // it never started there, an idle satellite takes it
+                    return followAttempt(liveAttempt, forward(request, jobs, relay, ((JobStolenException) cause).getThief(), attempt, firstAttempt));
+                }
+                if (!(cause instanceof SatelliteBusyException)) {
+                    CompletableFuture<Message> failed = new CompletableFuture<Message>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                }
+                if (attempt < Math.max(1, loadManager.getSatelliteCount())) {
+                    System.err.println("[Server.forward] " + cause.getMessage() + ", trying another satellite");
+                    return followAttempt(liveAttempt, forward(request, jobs, relay, null, attempt + 1, firstAttempt));
+                }
+                if (System.nanoTime() - firstAttempt > TimeUnit.MILLISECONDS.toNanos(saturationTimeout)) {
+                    return CompletableFuture.completedFuture(new Message(JOB_FAILED, "All satellites are saturated"));
+                }
+                return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<Message>>() {
+                    @Override
+                    public CompletableFuture<Message> get() {
+                        if (liveAttempt.get() == null) {
+                            // given up on while backing off
+                            CompletableFuture<Message> cancelled = new CompletableFuture<Message>();
+                            cancelled.cancel(false);
+                            return cancelled;
+                        }
+                        return followAttempt(liveAttempt, forward(request, jobs, relay, null, 1, firstAttempt));
+                    }
+                }, CompletableFuture.delayedExecutor(saturationBackoff, TimeUnit.MILLISECONDS))
+                        .thenCompose(Function.<CompletableFuture<Message>>identity());
+            }
+        }).thenCompose(Function.<CompletableFuture<Message>>identity());
+
+        // whoever gives up on the response before the satellite answered - cancels it, or times it out -
+        // gives up on the satellite's answer too, on whichever satellite the job is by now
+        response.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message result, Throwable error) {
+                CompletableFuture<Message> live = liveAttempt.getAndSet(null);
+                if (live != null && !live.isDone()) {
+                    live.cancel(false);
+                }
             }
+        });
+        return response;
+    }
+
+    // make the next attempt of a job the one in flight; if the response was given up on meanwhile, so is the attempt
+    private static CompletableFuture<Message> followAttempt(AtomicReference<CompletableFuture<Message>> liveAttempt,
+            CompletableFuture<Message> next) {
+        CompletableFuture<Message> live = liveAttempt.get();
+        if (live == null || !liveAttempt.compareAndSet(live, next)) {
+            next.cancel(false);
         }
+        return next;
     }
 
     // main()
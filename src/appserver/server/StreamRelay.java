@@ -0,0 +1,84 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import java.io.IOException;
+
+/**
+ * Class [StreamRelay] Passes the result chunks of one streaming job from the satellite on to the client,
+ * and the client's credits for more chunks back to the satellite. The server never holds more than
+ * the chunk it is writing. Credits granted before the job reached a satellite, or while it went to
+ * another one because the first was busy, are handed on once it is there.
+ */
+public class StreamRelay {
+
+    private final MessageChannel client;
+    private final long clientCorrelationId;
+
+    // the satellite connection streaming the results, and the request's correlation id on it
+    private SatelliteConnection satellite = null;
+    private long satelliteCorrelationId;
+
+    // credits the client granted, and chunks relayed against them
+    private long granted = 0;
+    private long relayed = 0;
+    private boolean cancelled = false;
+
+    public StreamRelay(MessageChannel client, long clientCorrelationId) {
+        this.client = client;
+        this.clientCorrelationId = clientCorrelationId;
+    }
+
+    /**
+     * The job went to a satellite: hand on the credits it did not get yet
+     */
+    synchronized void attach(SatelliteConnection connection, long correlationId) {
+        satellite = connection;
+        satelliteCorrelationId = correlationId;
+        if (cancelled) {
+            satellite.grant(satelliteCorrelationId, -1);
+        } else if (granted > relayed) {
+            satellite.grant(satelliteCorrelationId, (int) Math.min(Integer.MAX_VALUE, granted - relayed));
+        }
+    }
+
+    /**
+     * The client may take that many more chunks; a negative number cancels the stream
+     */
+    public synchronized void grant(int chunks) {
+        if (chunks < 0) {
+            cancel();
+            return;
+        }
+        granted += chunks;
+        if (satellite != null) {
+            satellite.grant(satelliteCorrelationId, chunks);
+        }
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        if (satellite != null) {
+            satellite.grant(satelliteCorrelationId, -1);
+        }
+    }
+
+    /**
+     * A chunk arrived from the satellite, pass it on. If the client is gone, stop the satellite.
+     */
+    void chunk(Object chunk) {
+        synchronized (this) {
+            relayed++;
+        }
+
+        Message message = new Message(RESULT_CHUNK, chunk);
+        message.setCorrelationId(clientCorrelationId);
+        try {
+            client.writeMessage(message);
+        } catch (IOException error) {
+            System.err.println("[StreamRelay] Client gone, cancelling stream: " + error);
+            cancel();
+        }
+    }
+}
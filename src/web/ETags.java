@@ -0,0 +1,52 @@
+package web;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Class [ETags]
+ * <p>
+ * Entity tags of files: weak tags made of a file's length and modification time, so a file has the
+ * same tag whether it is sent from disk or from the file cache, and getting it never means reading
+ * the file. The gzip compressed representation of a file - a precompressed file next to it, or
+ * compressed by the cache - is told apart by a suffix.
+ */
+public class ETags {
+
+    /**
+     * Returns the entity tag of a file, or of its gzip compressed representation
+     */
+    static String forFile(File file, boolean gzip) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return forFile(file.length(), file.lastModified(), gzip);
+    }
+
+    /**
+     * Returns the entity tag of a file of that length and modification time
+     */
+    static String forFile(long length, long lastModified, boolean gzip) {
+        return "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    /**
+     * Tells whether an If-None-Match header field names the given tag. Weak tags compare by value.
+     */
+    static boolean matches(String ifNoneMatch, String eTag) {
+        eTag = opaque(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = opaque(candidate.trim());
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the tag without its weakness indicator
+    private static String opaque(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+}
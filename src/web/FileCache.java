@@ -0,0 +1,364 @@
+package web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class [FileCache]
+ * <p>
+ * Keeps the contents of frequently requested files in direct buffers, together with their
+ * pre-rendered header fields, so a hit is answered without touching the disk. A miss is served from
+ * disk while a thread of the cache reads the file in, so the selector never waits for a whole file to
+ * be read or compressed. Compressible files are kept gzip compressed, too, for clients that accept
+ * that. The total size is bounded; the least recently used files are evicted first. A
+ * <code>WatchService</code> on the document root drops files from the cache as soon as they change,
+ * so a redeployed tool class is served right away.
+ */
+public class FileCache {
+
+    /**
+     * One way of sending a cached file: its content, as is or compressed, and the header fields
+     * that describe it
+     */
+    static class Variant {
+
+        final ByteBuffer content;
+        final ByteBuffer header;
+        final String eTag;
+
+        Variant(ByteBuffer content, ByteBuffer header, String eTag) {
+            this.content = content;
+            this.header = header;
+            this.eTag = eTag;
+        }
+
+        int size() {
+            return content.capacity() + header.capacity();
+        }
+    }
+
+    /**
+     * A cached file: the file as is, and gzip compressed if that makes it smaller
+     */
+    static class Entry {
+
+        final Variant identity;
+        final Variant gzip;
+        final long lastModified;
+        volatile long lastAccess;
+
+        Entry(Variant identity, Variant gzip, long lastModified) {
+            this.identity = identity;
+            this.gzip = gzip;
+            this.lastModified = lastModified;
+        }
+
+        int size() {
+            return identity.size() + (gzip == null ? 0 : gzip.size());
+        }
+    }
+
+    private final Path documentRoot;
+    private final long capacity;
+    private final long maxFileSize;
+    private final boolean compress;
+
+    private final ConcurrentHashMap<Path, Entry> files = new ConcurrentHashMap<Path, Entry>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+
+    // files being read into the cache, one at a time by the loader
+    private final Set<Path> loading = ConcurrentHashMap.newKeySet();
+    private final ExecutorService loader;
+    // counts the changes the watcher saw, a file read while one happened may be stale already
+    private final AtomicLong version = new AtomicLong();
+
+    // statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesFromCache = new LongAdder();
+
+    public FileCache(String documentRoot, long capacity, long maxFileSize, boolean compress) throws IOException {
+        this.documentRoot = new File(documentRoot).toPath().toAbsolutePath().normalize();
+        this.capacity = capacity;
+        this.maxFileSize = maxFileSize;
+        this.compress = compress;
+        loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "FileCache-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        startWatching();
+    }
+
+    /**
+     * Returns the cached entry for a file, or null if it is not cached. A file that is not is read into
+     * the cache in the background, if it is small enough; compressible files also get a gzip variant,
+     * if the cache makes them.
+     */
+    Entry get(File file, final String contentType, final boolean compressible) {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+
+        Entry entry = files.get(path);
+        if (entry != null) {
+            hits.increment();
+            entry.lastAccess = clock.incrementAndGet();
+            return entry;
+        }
+
+        misses.increment();
+        if (loading.add(path)) {
+            final long seen = version.get();
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Entry loaded = load(path, contentType, compress && compressible);
+                        if (loaded != null) {
+                            cache(path, loaded, seen);
+                        }
+                    } finally {
+                        loading.remove(path);
+                    }
+                }
+            });
+        }
+        return null;
+    }
+
+    private void cache(Path path, Entry entry, long seen) {
+        entry.lastAccess = clock.incrementAndGet();
+        Entry previous = files.put(path, entry);
+        size.addAndGet(entry.size() - (previous == null ? 0 : previous.size()));
+
+        // the watcher may have seen the file change after it was read, before there was an entry to drop
+        if (version.get() != seen) {
+            invalidate(path, entry);
+        }
+        evict();
+    }
+
+    /**
+     * Counts the bytes of a variant sent from the cache
+     */
+    void served(Variant variant) {
+        bytesFromCache.add(variant.content.capacity());
+    }
+
+    private Entry load(Path path, String contentType, boolean compressible) {
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            long length = Files.size(path);
+            if (length > maxFileSize || length > capacity) {
+                return null;
+            }
+
+            ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+            FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                while (content.hasRemaining() && file.read(content) > 0) {
+                    ;
+                }
+            } finally {
+                file.close();
+            }
+
+            // changed while we read it - serve it from disk this time, cache it next time
+            if (content.hasRemaining() || Files.getLastModifiedTime(path).toMillis() != lastModified) {
+                return null;
+            }
+            content.flip();
+
+            String vary = compressible ? "Vary: Accept-Encoding\r\n" : "";
+            Variant identity = variant(content, ETags.forFile(length, lastModified, false), lastModified, contentType, vary);
+            Variant gzip = null;
+            if (compressible) {
+                ByteBuffer compressed = gzip(content);
+                if (compressed.remaining() < content.remaining()) {
+                    gzip = variant(compressed, ETags.forFile(length, lastModified, true), lastModified, contentType,
+                            "Content-Encoding: gzip\r\n" + vary);
+                }
+            }
+            return new Entry(identity, gzip, lastModified);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // a variant with its pre-rendered header fields, everything in read-only direct buffers
+    private static Variant variant(ByteBuffer content, String eTag, long lastModified, String contentType, String extraHeader) {
+        byte[] headerBytes = ("Server: WebServer Version Feb 2000\r\n"
+                + "Content-length: " + content.remaining() + "\r\n"
+                + "Last-Modified: " + SimpleWebServer.HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + "\r\n"
+                + "ETag: " + eTag + "\r\n"
+                + extraHeader
+                + "Content-type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer header = ByteBuffer.allocateDirect(headerBytes.length);
+        header.put(headerBytes).flip();
+        return new Variant(content.asReadOnlyBuffer(), header.asReadOnlyBuffer(), eTag);
+    }
+
+    private static ByteBuffer gzip(ByteBuffer content) throws IOException {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(bytes);
+        out.close();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.size());
+        buffer.put(compressed.toByteArray()).flip();
+        return buffer;
+    }
+
+    // evict least recently used files until the cache is within its capacity again
+    private void evict() {
+        while (size.get() > capacity) {
+            Path victimPath = null;
+            Entry victim = null;
+            for (Map.Entry<Path, Entry> candidate : files.entrySet()) {
+                if (victim == null || candidate.getValue().lastAccess < victim.lastAccess) {
+                    victimPath = candidate.getKey();
+                    victim = candidate.getValue();
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            invalidate(victimPath, victim);
+        }
+    }
+
+    private void invalidate(Path path, Entry entry) {
+        if (files.remove(path, entry)) {
+            size.addAndGet(-entry.size());
+        }
+    }
+
+    private void invalidate(Path path) {
+        version.incrementAndGet();
+        Entry entry = files.get(path);
+        if (entry != null) {
+            invalidate(path, entry);
+            System.err.println("[FileCache] " + path + " changed, dropped from cache");
+        }
+    }
+
+    private void invalidateAll() {
+        version.incrementAndGet();
+        for (Map.Entry<Path, Entry> entry : files.entrySet()) {
+            invalidate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // watch the document root and every directory below it, on a thread of its own
+    private void startWatching() throws IOException {
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        final Map<WatchKey, Path> directories = new ConcurrentHashMap<WatchKey, Path>();
+        register(documentRoot, watchService, directories);
+
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = watchService.take();
+                        Path directory = directories.get(key);
+
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                                // events got lost, nothing in the cache can be trusted
+                                invalidateAll();
+                                continue;
+                            }
+
+                            Path changed = directory.resolve((Path) event.context());
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                                register(changed, watchService, directories);
+                            }
+                            invalidate(changed);
+                        }
+
+                        if (!key.reset()) {
+                            directories.remove(key);
+                        }
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    // shutting down
+                } catch (IOException e) {
+                    System.err.println("[FileCache] Watching " + documentRoot + " failed, disabling cache: " + e);
+                    invalidateAll();
+                }
+            }
+        }, "FileCache-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void register(Path root, final WatchService watchService, final Map<WatchKey, Path> directories) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getBytesFromCache() {
+        return bytesFromCache.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "files " + files.size() + ", " + size.get() + "/" + capacity + " bytes, hits " + getHits()
+                + ", misses " + getMisses() + String.format(", hit ratio %.3f", getHitRatio())
+                + ", bytes served from cache " + getBytesFromCache();
+    }
+}
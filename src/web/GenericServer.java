@@ -2,6 +2,11 @@ package web;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Properties;
 import utils.PropertyHandler;
 
@@ -11,6 +16,11 @@ import utils.PropertyHandler;
  * An abstract template-class for socket servers.. Concrete servers have to be
  * derived from this class. To do this, the method
  * <code>processConnection()</code>. has to be overridden
+ * <p>
+ * With <code>SERVER_MODE nio</code> in the properties, the server instead serves all clients
+ * from one thread with a selector; concrete servers then have to override
+ * <code>createConnection()</code>. Connections that stay idle longer than
+ * <code>getIdleTimeout()</code> are closed by the selector loop.
  *
  * @author Prof. Dr.-Ing. Wolf-Dieter Otte
  * @version Feb. 2000
@@ -19,6 +29,8 @@ public abstract class GenericServer implements Runnable {
 
     static ServerSocket serverSocket;
     static int port;
+    // "blocking" (a socket per connection, handed to processConnection()) or "nio" (selector loop)
+    static String mode;
 
     protected Socket socket;
 
@@ -31,6 +43,7 @@ public abstract class GenericServer implements Runnable {
             Properties properties;
             properties = new PropertyHandler(serverPropertiesFile);
             port = Integer.parseInt(properties.getProperty("PORT"));
+            mode = properties.getProperty("SERVER_MODE", "blocking").trim();
         } catch (Exception e) {
             System.err.println("[GenericServer.GenericServer] Properties file " + serverPropertiesFile + " not found, exiting ...");
             System.exit(1);
@@ -44,6 +57,11 @@ public abstract class GenericServer implements Runnable {
      * <code>Runnable</code>
      */
     public void run() {
+        if (mode.equals("nio")) {
+            runSelector();
+            return;
+        }
+
         try {
             serverSocket = new ServerSocket(port);
 
@@ -60,6 +78,97 @@ public abstract class GenericServer implements Runnable {
         }
     }
 
+    /**
+     * The method <code>runSelector()</code> serves all clients from this one thread:
+     * it accepts connections and lets each connection handle its channel whenever
+     * the channel is ready, so the number of threads does not grow with the number of clients.
+     */
+    void runSelector() {
+        try {
+            Selector selector = Selector.open();
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("[GenericServer.runSelector] Waiting for connections on Port #" + port);
+
+            // idle connections are looked for a few times per timeout, so one lives at most a little longer
+            int idleTimeout = getIdleTimeout();
+            long sweepInterval = Math.max(1, idleTimeout / 4);
+            long lastSweep = System.currentTimeMillis();
+
+            while (true) {
+                selector.select(idleTimeout > 0 ? sweepInterval : 0);
+
+                if (idleTimeout > 0 && System.currentTimeMillis() - lastSweep >= sweepInterval) {
+                    lastSweep = System.currentTimeMillis();
+                    closeIdle(selector, lastSweep - idleTimeout);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        SocketChannel channel;
+                        while ((channel = serverChannel.accept()) != null) {
+                            channel.configureBlocking(false);
+                            channel.socket().setTcpNoDelay(true);
+                            channel.register(selector, SelectionKey.OP_READ, createConnection(channel));
+                        }
+                        continue;
+                    }
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        connection.handle(key);
+                    } catch (IOException ioe) {
+                        connection.close();
+                    }
+                }
+            }
+
+        } catch (IOException ioe) {
+            System.err.println("IOException" + ioe.getMessage());
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the connections not handled since <code>idleSince</code>
+     */
+    void closeIdle(Selector selector, long idleSince) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof NioConnection) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection.getLastActive() < idleSince) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The method <code>getIdleTimeout()</code> returns the milliseconds a connection may stay idle
+     * in NIO mode before it is closed, 0 for no limit. Servers that close idle connections override it.
+     */
+    protected int getIdleTimeout() {
+        return 0;
+    }
+
+    /**
+     * The method <code>createConnection()</code> creates what serves a client in NIO mode.
+     * Servers that support NIO mode override it.
+     */
+    protected NioConnection createConnection(SocketChannel channel) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support NIO mode");
+    }
+
     /**
      * The method <code>processConnection()</code> contains the "Intelligence"
      * of servers, i.e. his application specific functionality. This method has
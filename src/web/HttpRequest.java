@@ -0,0 +1,70 @@
+package web;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Class [HttpRequest]
+ * <p>
+ * A parsed HTTP request: request line and header fields. Header field names are kept in lower case.
+ */
+public class HttpRequest {
+
+    String method;
+    String target;
+    String version;
+    Map<String, String> headers = new HashMap<String, String>();
+
+    /**
+     * Parses the head of a request, i.e. everything up to (not including) the empty line
+     */
+    public static HttpRequest parse(String head) {
+        HttpRequest request = new HttpRequest();
+
+        String[] lines = head.split("\r?\n");
+        StringTokenizer tokenizer = new StringTokenizer(lines[0]);
+        request.method = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+        request.target = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "/";
+        request.version = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : null;
+
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                request.headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        return request;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * The HTTP version, null for requests without one (HTTP/0.9), which get no response header
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * Whether the client wants the connection kept open after the response: HTTP/1.1 connections are
+     * persistent unless the client says "Connection: close", HTTP/1.0 ones only with "Connection: keep-alive"
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.1".equals(version)) {
+            return !"close".equalsIgnoreCase(connection);
+        }
+        return version != null && "keep-alive".equalsIgnoreCase(connection);
+    }
+}
@@ -0,0 +1,108 @@
+package web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Class [HttpResponse]
+ * <p>
+ * A response ready to be written: buffers holding the rendered status line, the header fields and
+ * possibly the body, optionally followed by a body that is a region of a file. Buffers are written
+ * with one gathering write where the channel supports it. File bodies are handed to the operating
+ * system with <code>FileChannel.transferTo()</code>, so their bytes are never copied onto the heap.
+ * Writing works on blocking and non-blocking channels alike.
+ */
+public class HttpResponse {
+
+    ByteBuffer[] buffers;
+    int firstBuffer = 0;
+    FileChannel file;
+    long filePosition;
+    long fileRemaining;
+    // whether the connection is closed after this response
+    boolean closeConnection = true;
+
+    HttpResponse(String header) {
+        this(ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    HttpResponse(ByteBuffer... buffers) {
+        this.buffers = buffers;
+    }
+
+    void setBody(ByteBuffer body) {
+        buffers = Arrays.copyOf(buffers, buffers.length + 1);
+        buffers[buffers.length - 1] = body;
+    }
+
+    void setBody(FileChannel file, long length) {
+        this.file = file;
+        this.filePosition = 0;
+        this.fileRemaining = length;
+    }
+
+    void setCloseConnection(boolean closeConnection) {
+        this.closeConnection = closeConnection;
+    }
+
+    public boolean closesConnection() {
+        return closeConnection;
+    }
+
+    /**
+     * Writes as much of the response as the channel takes right now.
+     * Returns true when the response is written completely.
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (firstBuffer < buffers.length) {
+            if (!buffers[firstBuffer].hasRemaining()) {
+                firstBuffer++;
+                continue;
+            }
+
+            long written;
+            if (channel instanceof GatheringByteChannel) {
+                written = ((GatheringByteChannel) channel).write(buffers, firstBuffer, buffers.length - firstBuffer);
+            } else {
+                written = channel.write(buffers[firstBuffer]);
+            }
+            if (written == 0) {
+                return false;
+            }
+        }
+
+        while (fileRemaining > 0) {
+            long transferred = file.transferTo(filePosition, fileRemaining, channel);
+            if (transferred <= 0) {
+                // socket buffer full, or the file shrank underneath us
+                if (filePosition >= file.size()) {
+                    throw new IOException("File shorter than announced");
+                }
+                return false;
+            }
+            filePosition += transferred;
+            fileRemaining -= transferred;
+        }
+
+        release();
+        return true;
+    }
+
+    /**
+     * Closes the file the body is streamed from, if any
+     */
+    public void release() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+            file = null;
+        }
+    }
+}
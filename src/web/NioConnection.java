@@ -0,0 +1,25 @@
+package web;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Interface [NioConnection]
+ * <p>
+ * A client connection served by the selector loop of a <code>GenericServer</code> in NIO mode.
+ * The connection is the attachment of its selection key and sets the key's interest itself.
+ */
+public interface NioConnection {
+
+    /**
+     * Called by the selector loop whenever the connection's channel is ready for what it is interested in
+     */
+    public void handle(SelectionKey key) throws IOException;
+
+    /**
+     * Returns when the connection was last handled (System.currentTimeMillis()), for closing idle connections
+     */
+    public long getLastActive();
+
+    public void close();
+}
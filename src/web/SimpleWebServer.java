@@ -1,22 +1,36 @@
 package web;
 
-import appserver.client.PlusOneClient;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Date;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Properties;
-import java.util.StringTokenizer;
 import utils.PropertyHandler;
 
 /**
  * Class [SimpleWebServer]
  *
  * A simple web server, which only implements the GET-method.
+ * Requests are answered by <code>respond()</code>, either on a thread per connection
+ * (<code>SocketThread</code>) or, in NIO mode, by the selector loop (<code>HttpConnection</code>).
  *
  * @author Prof. Dr.-Ing. Wolf-Dieter Otte
  */
@@ -25,6 +39,27 @@ public class SimpleWebServer extends GenericServer {
     static String documentRoot;
     static String indexfile = "index.html";
 
+    // cache of hot files, null if disabled
+    static FileCache fileCache = null;
+
+    // whether compressible files are sent gzip compressed to clients that accept it
+    static boolean gzip = true;
+
+    // resource that reports the cache statistics
+    static final String STATUS_RESOURCE = "/server-status";
+
+    // format of dates in HTTP headers
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    // longest request head accepted
+    static final int MAX_REQUEST_HEAD = 8192;
+
+    // size of the stream buffers of a connection in blocking mode
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    // milliseconds an idle persistent connection is kept open, 0 for no limit
+    static int keepAliveTimeout = 15000;
+
     /**
      * The constructor
      */
@@ -36,7 +71,20 @@ public class SimpleWebServer extends GenericServer {
             Properties properties;
             properties = new PropertyHandler(webServerPropertiesFile);
             documentRoot = properties.getProperty("DOC_ROOT");
+            keepAliveTimeout = Integer.parseInt(properties.getProperty("KEEP_ALIVE_TIMEOUT", "15000").trim());
+            gzip = Boolean.parseBoolean(properties.getProperty("GZIP", "true").trim());
 
+            // size of the file cache in bytes, and of the largest file it takes - 0 disables the cache
+            long cacheSize = Long.parseLong(properties.getProperty("FILE_CACHE_SIZE", "16777216").trim());
+            long cacheMaxFile = Long.parseLong(properties.getProperty("FILE_CACHE_MAX_FILE", "1048576").trim());
+            if (cacheSize > 0) {
+                try {
+                    fileCache = new FileCache(documentRoot, cacheSize, cacheMaxFile, gzip);
+                    System.out.println("WebServer file cache : " + cacheSize + " bytes, files up to " + cacheMaxFile + " bytes");
+                } catch (IOException e) {
+                    System.err.println("WebServer file cache could not watch " + documentRoot + ", running without: " + e);
+                }
+            }
         } catch (Exception e) {
             System.err.println("Properties file " + webServerPropertiesFile + " not found, exiting ...");
             System.exit(1);
@@ -51,25 +99,286 @@ public class SimpleWebServer extends GenericServer {
         (new SocketThread(socket)).start();
     }
 
+    /**
+     * The method <code>createConnection()</code> serves a client in NIO mode
+     */
+    @Override
+    protected NioConnection createConnection(SocketChannel channel) {
+        return new HttpConnection(channel);
+    }
+
+    /**
+     * The method <code>getIdleTimeout()</code> lets the selector loop close idle connections
+     * after the keep-alive timeout, as the socket timeout does in blocking mode
+     */
+    @Override
+    protected int getIdleTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * The method <code>respond()</code> is the core of the server: it turns a request
+     * into the response to send back
+     */
+    HttpResponse respond(HttpRequest request) {
+        String version = request.getVersion();
+        boolean keepAlive = request.isKeepAlive();
+
+        if (!request.getMethod().equals("GET")) {
+            // Method doesn't equal "GET" - we do not read request bodies, so the connection cannot be reused
+            System.err.println("Method: " + request.getMethod() + " is not supported\n");
+            return errorResponse(request, false, "501 Not Implemented", "Not Implemented");
+        }
+
+        String fileString = request.getTarget();
+        if (fileString.equals(STATUS_RESOURCE)) {
+            return statusResponse(request, keepAlive);
+        }
+        if (fileString.endsWith("/")) {
+            fileString += indexfile;
+        }
+        String contentType = guessContentTypeFromName(fileString);
+
+        System.err.println("File to serve: " + "\"" + fileString + "\"");
+        File fileToServe = new File(SimpleWebServer.documentRoot, fileString);
+        if (!fileToServe.isFile()) {
+            // Cannot find the file
+            System.err.println("File: " + fileToServe + " not found\n");
+            return errorResponse(request, keepAlive, "404 File Not Found", "File Not Found");
+        }
+
+        boolean compressible = gzip && isCompressible(fileString);
+        boolean acceptsGzip = compressible && acceptsGzip(request.getHeader("Accept-Encoding"));
+
+        // hot files are answered from memory
+        FileCache.Entry cached = fileCache == null ? null : fileCache.get(fileToServe, contentType, compressible);
+        if (cached != null) {
+            FileCache.Variant variant = acceptsGzip && cached.gzip != null ? cached.gzip : cached.identity;
+            if (notModified(request, variant.eTag, cached.lastModified)) {
+                System.err.println("File: " + fileToServe + " not modified\n");
+                return notModifiedResponse(request, keepAlive, variant.eTag, cached.lastModified);
+            }
+
+            System.err.println("File: " + fileToServe + " sent from cache\n");
+            fileCache.served(variant);
+            if (version == null) {
+                return new HttpResponse(cached.identity.content.duplicate());
+            }
+            HttpResponse response = new HttpResponse(
+                    ByteBuffer.wrap(statusLines(request, keepAlive, "200 OK").getBytes(StandardCharsets.ISO_8859_1)),
+                    variant.header.duplicate(), variant.content.duplicate());
+            response.setCloseConnection(!keepAlive);
+            return response;
+        }
+
+        // a precompressed variant next to the file is sent instead, as long as it is not older
+        long lastModified = fileToServe.lastModified();
+        File variantFile = fileToServe;
+        String encodingHeader = "";
+        File gzipFile = new File(fileToServe.getPath() + ".gz");
+        if (compressible && gzipFile.isFile() && gzipFile.lastModified() >= lastModified) {
+            encodingHeader = "Vary: Accept-Encoding\r\n";
+            if (acceptsGzip && version != null) {
+                variantFile = gzipFile;
+                encodingHeader = "Content-Encoding: gzip\r\n" + encodingHeader;
+            }
+        }
+
+        FileChannel file;
+        long length;
+        String eTag;
+        try {
+            // the tag of the file it stands for, as the file cache gives it
+            eTag = ETags.forFile(fileToServe, variantFile != fileToServe);
+            file = FileChannel.open(variantFile.toPath(), StandardOpenOption.READ);
+            length = file.size();
+        } catch (IOException e) {
+            System.err.println("File: " + fileToServe + " not found\n");
+            return errorResponse(request, keepAlive, "404 File Not Found", "File Not Found");
+        }
+
+        // the client has the file already and it did not change since
+        if (notModified(request, eTag, lastModified)) {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+            System.err.println("File: " + fileToServe + " not modified\n");
+            return notModifiedResponse(request, keepAlive, eTag, lastModified);
+        }
+
+        HttpResponse response = new HttpResponse(version == null ? "" : statusLines(request, keepAlive, "200 OK")
+                + "Server: WebServer Version Feb 2000\r\n"
+                + "Content-length: " + length + "\r\n"
+                + "Last-Modified: " + HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + "\r\n"
+                + "ETag: " + eTag + "\r\n"
+                + encodingHeader
+                + "Content-type: " + contentType + "\r\n\r\n");
+        response.setBody(file, length);
+        response.setCloseConnection(!keepAlive);
+        System.err.println("File: " + fileToServe + " sent\n");
+        return response;
+    }
+
+    HttpResponse notModifiedResponse(HttpRequest request, boolean keepAlive, String eTag, long lastModified) {
+        HttpResponse response = new HttpResponse(request.getVersion() == null ? "" : statusLines(request, keepAlive, "304 Not Modified")
+                + "Server: WebServer Version Feb 2000\r\n"
+                + "Last-Modified: " + HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + "\r\n"
+                + "ETag: " + eTag + "\r\n\r\n");
+        response.setCloseConnection(!keepAlive);
+        return response;
+    }
+
+    HttpResponse errorResponse(HttpRequest request, boolean keepAlive, String status, String title) {
+        byte[] body = ("<HTML><HEAD><TITLE>" + title + "</TITLE></HEAD>\r\n"
+                + "<BODY><H1>HTTP Error " + status.substring(0, 3) + ": " + title + "</H1></BODY></HTML>\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        HttpResponse response = new HttpResponse(request.getVersion() == null ? "" : statusLines(request, keepAlive, status)
+                + "Server: MyWebServer Version Feb 2000\r\n"
+                + "Content-length: " + body.length + "\r\n"
+                + "Content-type: text/html" + "\r\n\r\n");
+        response.setBody(ByteBuffer.wrap(body));
+        response.setCloseConnection(!keepAlive);
+        return response;
+    }
+
+    HttpResponse statusResponse(HttpRequest request, boolean keepAlive) {
+        String status = "file cache: " + (fileCache == null ? "disabled" : fileCache.toString()) + "\r\n";
+        HttpResponse response = new HttpResponse(request.getVersion() == null ? "" : statusLines(request, keepAlive, "200 OK")
+                + "Server: WebServer Version Feb 2000\r\n"
+                + "Content-length: " + status.length() + "\r\n"
+                + "Content-type: text/plain" + "\r\n\r\n");
+        response.setBody(ByteBuffer.wrap(status.getBytes(StandardCharsets.ISO_8859_1)));
+        response.setCloseConnection(!keepAlive);
+        return response;
+    }
+
+    /**
+     * The method <code>statusLines()</code> renders the status line, the Date header and, where
+     * the client would not assume it, the Connection header. HTTP/1.1 clients get HTTP/1.1 responses.
+     */
+    static String statusLines(HttpRequest request, boolean keepAlive, String status) {
+        boolean http11 = "HTTP/1.1".equals(request.getVersion());
+        String connection = "";
+        if (http11 && !keepAlive) {
+            connection = "Connection: close\r\n";
+        } else if (!http11 && keepAlive) {
+            connection = "Connection: keep-alive\r\n";
+        }
+        return (http11 ? "HTTP/1.1 " : "HTTP/1.0 ") + status + "\r\n" + dateHeader() + connection;
+    }
+
+    /**
+     * The method <code>dateHeader()</code> returns the Date header field. It only changes once a second,
+     * so it is rendered once a second and shared by all responses in between.
+     */
+    static String dateHeader() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate date = cachedDate;
+        if (date == null || date.second != second) {
+            date = new CachedDate(second, "Date: " + HTTP_DATE.format(Instant.ofEpochSecond(second)) + "\r\n");
+            cachedDate = date;
+        }
+        return date.header;
+    }
+
+    // the rendered Date header field, and the second it was rendered for
+    private static final class CachedDate {
+
+        final long second;
+        final String header;
+
+        CachedDate(long second, String header) {
+            this.second = second;
+            this.header = header;
+        }
+    }
+
+    private static volatile CachedDate cachedDate = null;
+
+    /**
+     * The method <code>notModified()</code> tells whether the client has the current version already.
+     * An If-None-Match header field decides; If-Modified-Since only counts without one.
+     */
+    static boolean notModified(HttpRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ETags.matches(ifNoneMatch, eTag);
+        }
+        return notModifiedSince(lastModified, request.getHeader("If-Modified-Since"));
+    }
+
+    /**
+     * The method <code>notModifiedSince()</code> tells whether a file last modified at the given
+     * time is older than the date in an If-Modified-Since header (HTTP dates have whole seconds)
+     */
+    static boolean notModifiedSince(long lastModified, String httpDate) {
+        if (httpDate == null) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(httpDate, HTTP_DATE).toInstant().getEpochSecond();
+            return lastModified / 1000 <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The method <code>acceptsGzip()</code> tells whether an Accept-Encoding header field allows gzip
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            if (parameters[0].trim().equalsIgnoreCase("gzip")) {
+                // "gzip;q=0" means no gzip
+                return parameters.length < 2 || !parameters[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The method <code>isCompressible()</code> tells whether compressing a file is worth a try,
+     * i.e. it is not in a compressed format already
+     */
+    public static boolean isCompressible(String name) {
+        return !(name.endsWith(".jar") || name.endsWith(".gz") || name.endsWith(".gif")
+                || name.endsWith(".jpg") || name.endsWith(".jpeg"));
+    }
+
+    /**
+     * The method <code>guessContentTypeFromName()</code> returns the
+     * MIME-type of a file, which is guessed from the file's extention.
+     */
+    public static String guessContentTypeFromName(String name) {
+        if (name.endsWith(".html") || name.endsWith(".htm")) {
+            return "text/html";
+        } else if (name.endsWith(".txt") || name.endsWith(".java")) {
+            return "text/plain";
+        } else if (name.endsWith(".gif")) {
+            return "image/gif";
+        } else if (name.endsWith(".class") || name.endsWith(".jar")) {
+            return "application/octet-stream";
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else {
+            return "text/plain";
+        }
+    }
+
     /**
      * Inner Class [SocketThread] This thread processes a client (web browser)
-     * request. In the meantime the web server can accept other clients.
+     * connection: request after request, as long as the client keeps it open.
+     * In the meantime the web server can accept other clients.
      */
     class SocketThread extends Thread {
 
         Socket socket = null;
 
-        BufferedReader readFromNet = null;
-        PrintStream writeToNet = null;
-
-        String inputLine;
-        String httpMethod;
-        StringTokenizer tokenizer;
-        String fileString;
-        String version;
-        String contentType;
-        File fileToServe;
-
         /**
          * The Constructor
          */
@@ -78,117 +387,180 @@ public class SimpleWebServer extends GenericServer {
         }
 
         /**
-         * The method <code>run()</code> is the core of the server
+         * The method <code>run()</code> reads requests and writes the responses. Requests the client
+         * pipelined are already waiting in the input buffer, their responses are flushed together.
          */
         public void run() {
+            HttpResponse response = null;
             try {
-                writeToNet = new PrintStream(socket.getOutputStream());
-                readFromNet = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                inputLine = readFromNet.readLine();
-                tokenizer = new StringTokenizer(inputLine);
-                httpMethod = tokenizer.nextToken();
+                socket.setSoTimeout(keepAliveTimeout);
+                InputStream readFromNet = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+                OutputStream writeToNet = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+                WritableByteChannel channel = Channels.newChannel(writeToNet);
 
-                if (httpMethod.equals("GET")) {
-                    fileString = tokenizer.nextToken();
-
-                    if (fileString.endsWith("/")) {
-                        fileString += indexfile;
+                String head;
+                while ((head = readRequestHead(readFromNet)) != null) {
+                    response = respond(HttpRequest.parse(head));
+                    while (!response.writeTo(channel)) {
+                        ; // blocking channel, every call writes what it can
+                    }
+                    boolean closeConnection = response.closesConnection();
+                    response = null;
+                    if (closeConnection) {
+                        break;
                     }
-                    contentType = guessContentTypeFromName(fileString);
 
-                    if (tokenizer.hasMoreTokens()) {
-                        version = tokenizer.nextToken();
+                    // flush once no pipelined request is waiting
+                    if (readFromNet.available() == 0) {
+                        writeToNet.flush();
                     }
+                }
+                writeToNet.flush();
+            } catch (SocketTimeoutException e) {
+                // idle keep-alive connection
+            } catch (IOException e) {
+            } finally {
+                if (response != null) {
+                    response.release();
+                }
+            }
 
-                    // Skip the rest
-                    while ((inputLine = readFromNet.readLine()) != null) {
-                        if (inputLine.trim().equals("")) {
-                            break;
-                        }
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /**
+         * Reads the request line and header fields, up to the empty line
+         */
+        String readRequestHead(InputStream readFromNet) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+            int c;
+            int matched = 0;
+            while ((c = readFromNet.read()) != -1) {
+                head.write(c);
+                // look for the empty line: "\r\n\r\n", or just "\n\n"
+                if (c == '\n') {
+                    if (++matched == 2) {
+                        return head.toString("ISO-8859-1").trim();
                     }
+                } else if (c != '\r') {
+                    matched = 0;
+                }
+                if (head.size() > MAX_REQUEST_HEAD) {
+                    throw new IOException("Request head too long");
+                }
+            }
+            return head.size() > 0 ? head.toString("ISO-8859-1").trim() : null;
+        }
+    }
 
-                    try {
-                        System.err.println("File to serve: " + "\"" + fileString + "\"");
-                        fileToServe = new File(SimpleWebServer.documentRoot, fileString);
-                        FileInputStream fis = new FileInputStream(fileToServe);
-                        byte[] theData = new byte[(int) fileToServe.length()];
-
-                        fis.read(theData);
-                        fis.close();
-
-                        if (version.startsWith("HTTP/")) {
-                            // Send a MIME header
-                            writeToNet.print("HTTP/1.0 200 OK\r\n");
-                            writeToNet.print("Date: " + new Date() + "\r\n");
-                            writeToNet.print("Server: WebServer Version Feb 2000\r\n");
-                            writeToNet.print("Content-length: " + theData.length + "\r\n");
-                            writeToNet.print("Content-type: " + contentType + "\r\n\r\n");
-                        }
+    /**
+     * Inner Class [HttpConnection] Serves a client in NIO mode. Reads request heads
+     * without blocking, then writes each response whenever the socket can take more.
+     * Requests the client pipelined stay in the read buffer until their turn.
+     */
+    class HttpConnection implements NioConnection {
+
+        SocketChannel channel;
+        ByteBuffer readBuffer = ByteBuffer.allocate(MAX_REQUEST_HEAD);
+        HttpResponse response = null;
+        long lastActive = System.currentTimeMillis();
+
+        HttpConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
 
-                        // Send the file
-                        writeToNet.write(theData);
-                        writeToNet.close();
-                        System.err.println("File: " + fileToServe + " sent\n");
-
-                    } catch (IOException e) {
-                        // Cannot find the file
-                        if (version.startsWith("HTTP/")) {
-                            // send a MIME header
-                            writeToNet.print("HTTP/1.0 404 File Not Found\r\n");
-                            writeToNet.print("Date: " + new Date() + "\r\n");
-                            writeToNet.print("Server: MyWebServer Version Feb 2000\r\n");
-                            writeToNet.print("Content-type: text/html" + "\r\n\r\n");
+        @Override
+        public long getLastActive() {
+            return lastActive;
+        }
+
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            lastActive = System.currentTimeMillis();
+            if (response == null && key.isReadable()) {
+                if (channel.read(readBuffer) == -1) {
+                    close();
+                    return;
+                }
+            }
+
+            while (true) {
+                if (response == null) {
+                    response = nextResponse();
+                    if (response == null) {
+                        if (!readBuffer.hasRemaining()) {
+                            // request head too long
+                            close();
+                        } else {
+                            key.interestOps(SelectionKey.OP_READ);
                         }
-                        writeToNet.println("<HTML><HEAD><TITLE>File Not Found</TITLE></HEAD>");
-                        writeToNet.println("<BODY><H1>HTTP Error 404: File Not Found</H1></BODY></HTML>");
-                        writeToNet.close();
-                        System.err.println("File: " + fileToServe + " not found\n");
-                    }
-                } else {
-                    // Method doesn't equal "GET"
-                    if (version.startsWith("HTTP/")) {
-                        // send a MIME header
-                        writeToNet.print("HTTP/1.0 501 Not Implemented\r\n");
-                        writeToNet.print("Date: " + new Date() + "\r\n");
-                        writeToNet.print("Server: MyWebServer Version Feb 2000\r\n");
-                        writeToNet.print("Content-type: text/html" + "\r\n\r\n");
+                        return;
                     }
+                }
 
-                    writeToNet.println("<HTML><HEAD><TITLE>Not Implemented</TITLE></HEAD>");
-                    writeToNet.println("<BODY><H1>HTTP Error 501: Not Implemented</H1></BODY></HTML>");
-                    writeToNet.close();
-
-                    System.err.println("Method: " + httpMethod + " is not supported\n");
+                if (!response.writeTo(channel)) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
 
+                boolean closeConnection = response.closesConnection();
+                response = null;
+                if (closeConnection) {
+                    close();
+                    return;
                 }
-            } catch (IOException e) {
             }
+        }
+
+        /**
+         * Takes the next complete request head out of the read buffer and responds to it,
+         * returns null if there is none yet
+         */
+        HttpResponse nextResponse() {
+            int headEnd = findHeadEnd(readBuffer);
+            if (headEnd < 0) {
+                return null;
+            }
+
+            String head = new String(readBuffer.array(), 0, headEnd, StandardCharsets.ISO_8859_1);
+            // keep what follows the head, it is the next pipelined request
+            readBuffer.flip();
+            readBuffer.position(headEnd);
+            readBuffer.compact();
+
+            return respond(HttpRequest.parse(head.trim()));
+        }
 
+        @Override
+        public void close() {
+            if (response != null) {
+                response.release();
+            }
             try {
-                socket.close();
+                channel.close();
             } catch (IOException e) {
             }
         }
 
         /**
-         * The method <code>guessContentTypeFromName()</code> returns the
-         * MIME-type of a file, which is guessed from the file's extention.
+         * Returns the end of the request head (after the empty line) in the buffer, or -1
          */
-        public String guessContentTypeFromName(String name) {
-            if (name.endsWith(".html") || name.endsWith(".htm")) {
-                return "text/html";
-            } else if (name.endsWith(".txt") || name.endsWith(".java")) {
-                return "text/plain";
-            } else if (name.endsWith(".gif")) {
-                return "image/gif";
-            } else if (name.endsWith(".class")) {
-                return "application/octet-stream";
-            } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
-                return "image/jpeg";
-            } else {
-                return "text/plain";
+        int findHeadEnd(ByteBuffer buffer) {
+            byte[] bytes = buffer.array();
+            int matched = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    if (++matched == 2) {
+                        return i + 1;
+                    }
+                } else if (bytes[i] != '\r') {
+                    matched = 0;
+                }
             }
+            return -1;
         }
     }
     